@@ -0,0 +1,61 @@
+package org.baswell.sessioncookie;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Builds sessions and cookie values of a predictable size for the benchmarks.
+ */
+class BenchmarkSessions
+{
+  static final String COOKIE_NAME = SessionCookieParameters.DEFAULT_COOKIE_NAME;
+
+  static final byte[] KEY = new byte[32];
+
+  static
+  {
+    for (int i = 0; i < KEY.length; i++)
+    {
+      KEY[i] = (byte) (i * 31 + 7);
+    }
+  }
+
+  static SessionCookieDefaultParameters parameters(int maxInMemorySessions, int inactivityTimeoutSeconds)
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setSymmetricEncryptionKey(KEY);
+    parameters.setMaxInMemorySessions(maxInMemorySessions);
+    parameters.setInactivityTimeoutSeconds(inactivityTimeoutSeconds);
+    return parameters;
+  }
+
+  /**
+   * A session holding a few small flags plus filler attributes until its encoded size is at least <code>sessionBytes</code>.
+   */
+  static CookieBackedSession session(int sessionBytes)
+  {
+    CookieBackedSession session = new CookieBackedSession(SessionCookieParameters.DEFAULT_INACTIVITY_TIMEOUT_SECONDS, new SessionCookieDefaultErrorHandler());
+    if (sessionBytes > 0)
+    {
+      session.sessionData().put("userId", 1234567L);
+      session.sessionData().put("admin", Boolean.FALSE);
+      session.sessionData().put("locale", "en_US");
+
+      StringBuilder filler = new StringBuilder();
+      for (int i = 0; session.encodeSessionData().length < sessionBytes; i++)
+      {
+        filler.setLength(0);
+        for (int j = 0; j < 64; j++)
+        {
+          filler.append((char) ('a' + ((i + j) % 26)));
+        }
+        session.sessionData().put("filler" + i, filler.toString());
+      }
+    }
+    return session;
+  }
+
+  static String cookieValue(CookieBackedSession session) throws GeneralSecurityException
+  {
+    return EncodedEncryptedCookieValue.encodeAndEncrypt(session.encodeControlData(), session.encodeSessionData(), KEY, SessionCookieParameters.DEFAULT_SYMMETRIC_ENCRYPTION_ALGORITHM);
+  }
+}
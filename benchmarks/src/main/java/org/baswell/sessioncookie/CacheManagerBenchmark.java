@@ -0,0 +1,52 @@
+package org.baswell.sessioncookie;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session lookup from an incoming cookie ({@link CacheManager#getSession(HttpServletRequest, boolean)}) with and without the in memory cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheManagerBenchmark
+{
+  @Param({"0", "256", "1024", "4096"})
+  public int sessionBytes;
+
+  @Param({"-1", "10000"})
+  public int maxInMemorySessions;
+
+  private CacheManager cacheManager;
+
+  private HttpServletRequest request;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = BenchmarkSessions.parameters(maxInMemorySessions, SessionCookieParameters.DEFAULT_INACTIVITY_TIMEOUT_SECONDS);
+    cacheManager = new CacheManager(new CurrentParameters(parameters, new SessionCookieDefaultErrorHandler()), new SessionCookieDefaultErrorHandler());
+    request = StubHttp.request("/app/home", BenchmarkSessions.COOKIE_NAME, BenchmarkSessions.cookieValue(BenchmarkSessions.session(sessionBytes)));
+  }
+
+  @Benchmark
+  public CookieBackedSession getSession()
+  {
+    return cacheManager.getSession(request, false);
+  }
+}
@@ -0,0 +1,66 @@
+package org.baswell.sessioncookie;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each built-in {@link SessionCookieCryptoEngine} sealing and opening session cookie contents from several threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class CryptoEngineBenchmark
+{
+  private static final byte[] HEADER = {EncodedEncryptedCookieValue.WIRE_FORMAT_VERSION};
+
+  @Param({SessionCookieParameters.DEFAULT_SYMMETRIC_ENCRYPTION_ALGORITHM, SessionCookieParameters.AES_GCM_ALGORITHM, SessionCookieParameters.CHACHA20_POLY1305_ALGORITHM,
+      SessionCookieParameters.HMAC_SHA256_ALGORITHM})
+  public String algorithm;
+
+  @Param({"256", "4096"})
+  public int plaintextBytes;
+
+  private SessionCookieCryptoEngine engine;
+
+  private byte[] plaintext;
+
+  private byte[] sealed;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    engine = SessionCookieCryptoEngine.forAlgorithm(algorithm, BenchmarkSessions.KEY);
+    plaintext = new byte[plaintextBytes];
+    new Random(1).nextBytes(plaintext);
+    sealed = engine.seal(HEADER, plaintext);
+  }
+
+  @Benchmark
+  public byte[] seal() throws Exception
+  {
+    return engine.seal(HEADER, plaintext);
+  }
+
+  @Benchmark
+  public byte[] open() throws Exception
+  {
+    return engine.open(HEADER, sealed, 0, sealed.length);
+  }
+}
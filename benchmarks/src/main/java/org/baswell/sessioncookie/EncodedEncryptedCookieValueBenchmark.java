@@ -0,0 +1,65 @@
+package org.baswell.sessioncookie;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encryption and decryption of already encoded session sections ({@link EncodedEncryptedCookieValue}), compared with only signing them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodedEncryptedCookieValueBenchmark
+{
+  @Param({"0", "256", "1024", "4096"})
+  public int sessionBytes;
+
+  @Param({SessionCookieParameters.DEFAULT_SYMMETRIC_ENCRYPTION_ALGORITHM, SessionCookieParameters.HMAC_SHA256_ALGORITHM})
+  public String algorithm;
+
+  private byte[] controlData;
+
+  private byte[] sessionData;
+
+  private String cookieValue;
+
+  private KeyedCiphers ciphers;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    CookieBackedSession session = BenchmarkSessions.session(sessionBytes);
+    controlData = session.encodeControlData();
+    sessionData = session.encodeSessionData();
+    SessionCookieDefaultParameters parameters = BenchmarkSessions.parameters(-1, -1);
+    parameters.setSymmetricEncryptionAlgorithm(algorithm);
+    ciphers = new ParametersSnapshot(parameters, null).ciphers;
+    cookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(controlData, sessionData, ciphers);
+  }
+
+  @Benchmark
+  public String encodeAndEncrypt() throws Exception
+  {
+    return EncodedEncryptedCookieValue.encodeAndEncrypt(controlData, sessionData, ciphers);
+  }
+
+  @Benchmark
+  public EncodedEncryptedCookieValue decodeAndDecrypt() throws Exception
+  {
+    return EncodedEncryptedCookieValue.decodeAndDecrypt(cookieValue, ciphers);
+  }
+}
@@ -0,0 +1,68 @@
+package org.baswell.sessioncookie;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session map encoding ({@link EncodedMap#toBytes()}) and decoding ({@link EncodedMap#EncodedMap(byte[])}) on their own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodedMapBenchmark
+{
+  @Param({"0", "256", "1024", "4096"})
+  public int sessionBytes;
+
+  private EncodedMap sessionData;
+
+  private byte[] encodedSessionData;
+
+  @Setup
+  public void setup()
+  {
+    sessionData = BenchmarkSessions.session(sessionBytes).sessionData();
+    encodedSessionData = sessionData.toBytes();
+  }
+
+  @Benchmark
+  public byte[] encode()
+  {
+    return sessionData.toBytes();
+  }
+
+  @Benchmark
+  public EncodedMap decode() throws Exception
+  {
+    return new EncodedMap(encodedSessionData);
+  }
+
+  @Benchmark
+  public Object decodeOneAttribute() throws Exception
+  {
+    return new EncodedMap(encodedSessionData).decode("admin");
+  }
+
+  @Benchmark
+  public byte[] decodeOneAttributeAndEncode() throws Exception
+  {
+    EncodedMap map = new EncodedMap(encodedSessionData);
+    map.decode("admin");
+    map.put("lastPage", "/app/home");
+    return map.toBytes();
+  }
+}
@@ -0,0 +1,93 @@
+package org.baswell.sessioncookie;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Deciding whether a request is set up with session cookies from <code>ExcludedPaths</code> with many patterns. A third of the patterns are literal prefixes,
+ * a third literal suffixes and a third need a regular expression. Compares trying each {@link Pattern} in turn, as the filter used to, with {@link PathMatcher}
+ * and with the per-URI decision cache of {@link RequestPathMatcher}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathMatcherBenchmark
+{
+  @Param({"30", "300"})
+  public int patternCount;
+
+  /**
+   * A path excluded by a prefix pattern, one excluded by a suffix pattern and one that matches no pattern so it's wrapped.
+   */
+  @Param({"/app/static/bundle9/app.css", "/app/img/logo.ext9", "/app/account/settings"})
+  public String requestURI;
+
+  private List<Pattern> patterns;
+
+  private PathMatcher pathMatcher;
+
+  private RequestPathMatcher requestPathMatcher;
+
+  @Setup
+  public void setup()
+  {
+    List<String> expressions = new ArrayList<>();
+    for (int i = 0; i < patternCount / 3; i++)
+    {
+      expressions.add("/static/bundle" + i + "/.*");
+      expressions.add(".*\\.ext" + i);
+      expressions.add("/api/v[0-9]+/resource" + i + "/.*");
+    }
+
+    patterns = new ArrayList<>();
+    for (String expression : expressions)
+    {
+      patterns.add(Pattern.compile(expression));
+    }
+    pathMatcher = new PathMatcher(expressions);
+    requestPathMatcher = new RequestPathMatcher(null, pathMatcher);
+  }
+
+  @Benchmark
+  public boolean sequentialPatterns()
+  {
+    String requestPath = requestURI.substring("/app".length());
+    for (Pattern pattern : patterns)
+    {
+      if (pattern.matcher(requestPath).matches())
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Benchmark
+  public boolean pathMatcher()
+  {
+    return SessionCookieFilter.wrapRequest("/app", requestURI, null, pathMatcher);
+  }
+
+  @Benchmark
+  public boolean cachedDecision()
+  {
+    return requestPathMatcher.wrap("/app", requestURI);
+  }
+}
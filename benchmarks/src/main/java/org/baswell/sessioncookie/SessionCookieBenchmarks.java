@@ -0,0 +1,44 @@
+package org.baswell.sessioncookie;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Runs the SessionCookie benchmarks once per thread count. Usage:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar [benchmark regex] [thread counts]
+ * </pre>
+ *
+ * The thread counts are comma delimited and default to <code>1,4</code> plus the number of available processors. Any JMH option can still be used by running
+ * <code>java -cp target/benchmarks.jar org.openjdk.jmh.Main</code> directly.
+ */
+public class SessionCookieBenchmarks
+{
+  public static void main(String[] args) throws Exception
+  {
+    String include = args.length > 0 ? args[0] : "org.baswell.sessioncookie.*Benchmark";
+    String threadCounts = args.length > 1 ? args[1] : "1,4," + Runtime.getRuntime().availableProcessors();
+
+    Set<Integer> threadsToRun = new LinkedHashSet<>();
+    for (String threadCount : threadCounts.split(","))
+    {
+      threadsToRun.add(Integer.parseInt(threadCount.trim()));
+    }
+
+    for (int threads : threadsToRun)
+    {
+      ChainedOptionsBuilder options = new OptionsBuilder()
+          .include(include)
+          .threads(threads)
+          .resultFormat(ResultFormatType.CSV)
+          .result("jmh-result-" + threads + "-threads.csv");
+      new Runner(options.build()).run();
+    }
+  }
+}
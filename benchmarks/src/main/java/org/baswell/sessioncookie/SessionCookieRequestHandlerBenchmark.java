@@ -0,0 +1,79 @@
+package org.baswell.sessioncookie;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The full request path through {@link SessionCookieRequestHandler#handle(HttpServletRequest, HttpServletResponse, SessionCookieRequestChain)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionCookieRequestHandlerBenchmark
+{
+  @Param({"0", "256", "1024", "4096"})
+  public int sessionBytes;
+
+  @Param({"-1", "10000"})
+  public int maxInMemorySessions;
+
+  @Param({"-1", "1800"})
+  public int inactivityTimeoutSeconds;
+
+  private SessionCookieRequestHandler handler;
+
+  private HttpServletRequest request;
+
+  private HttpServletResponse response;
+
+  private SessionCookieRequestChain idOnlyChain;
+
+  private SessionCookieRequestChain readChain;
+
+  private SessionCookieRequestChain writeChain;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    handler = new SessionCookieRequestHandler(BenchmarkSessions.parameters(maxInMemorySessions, inactivityTimeoutSeconds), new SessionCookieDefaultErrorHandler());
+    request = StubHttp.request("/app/home", BenchmarkSessions.COOKIE_NAME, BenchmarkSessions.cookieValue(BenchmarkSessions.session(sessionBytes)));
+    response = StubHttp.response();
+    idOnlyChain = new SessionCookieFilterRequestChain((request, response) -> ((HttpServletRequest) request).getSession().getId());
+    readChain = new SessionCookieFilterRequestChain(StubHttp.chain("admin", null));
+    writeChain = new SessionCookieFilterRequestChain(StubHttp.chain("admin", "lastPage"));
+  }
+
+  @Benchmark
+  public void sessionIdOnly() throws Exception
+  {
+    handler.handle(request, response, idOnlyChain);
+  }
+
+  @Benchmark
+  public void readAttribute() throws Exception
+  {
+    handler.handle(request, response, readChain);
+  }
+
+  @Benchmark
+  public void writeAttribute() throws Exception
+  {
+    handler.handle(request, response, writeChain);
+  }
+}
@@ -0,0 +1,124 @@
+package org.baswell.sessioncookie;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal {@link HttpServletRequest} and {@link HttpServletResponse} stand-ins so the request path can be benchmarked without a container.
+ */
+class StubHttp
+{
+  static HttpServletRequest request(String requestUri, String cookieName, String cookieValue)
+  {
+    final Cookie[] cookies = cookieValue == null ? null : new Cookie[] {new Cookie(cookieName, cookieValue)};
+    final String cookieHeader = cookieValue == null ? null : "_ga=GA1.2.1234567890.1234567890; " + cookieName + "=" + cookieValue + "; theme=dark";
+    final Map<String, Object> attributes = new HashMap<>();
+
+    InvocationHandler handler = (proxy, method, args) ->
+    {
+      switch (method.getName())
+      {
+        case "getCookies":
+          return cookies == null ? null : cookies.clone();
+        case "getHeader":
+          return "Cookie".equalsIgnoreCase((String) args[0]) ? cookieHeader : null;
+        case "getHeaders":
+          return "Cookie".equalsIgnoreCase((String) args[0]) && cookieHeader != null ? Collections.enumeration(Collections.singletonList(cookieHeader)) : Collections.emptyEnumeration();
+        case "getContextPath":
+          return "";
+        case "getRequestURI":
+          return requestUri;
+        case "getServletPath":
+          return requestUri;
+        case "getAttribute":
+          return attributes.get(args[0]);
+        case "setAttribute":
+          attributes.put((String) args[0], args[1]);
+          return null;
+        case "removeAttribute":
+          attributes.remove(args[0]);
+          return null;
+        case "isSecure":
+          return false;
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        case "toString":
+          return "StubHttpServletRequest " + requestUri;
+        default:
+          return defaultValue(method.getReturnType());
+      }
+    };
+
+    return (HttpServletRequest) Proxy.newProxyInstance(StubHttp.class.getClassLoader(), new Class[] {HttpServletRequest.class}, handler);
+  }
+
+  static HttpServletResponse response()
+  {
+    InvocationHandler handler = (proxy, method, args) ->
+    {
+      switch (method.getName())
+      {
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        case "toString":
+          return "StubHttpServletResponse";
+        default:
+          return defaultValue(method.getReturnType());
+      }
+    };
+
+    return (HttpServletResponse) Proxy.newProxyInstance(StubHttp.class.getClassLoader(), new Class[] {HttpServletResponse.class}, handler);
+  }
+
+  static FilterChain chain(String readAttribute, String writeAttribute)
+  {
+    return (request, response) ->
+    {
+      HttpSession session = ((HttpServletRequest) request).getSession();
+      if (readAttribute != null)
+      {
+        session.getAttribute(readAttribute);
+      }
+      if (writeAttribute != null)
+      {
+        session.setAttribute(writeAttribute, System.nanoTime());
+      }
+    };
+  }
+
+  static Object defaultValue(Class<?> type)
+  {
+    if (type == boolean.class)
+    {
+      return false;
+    }
+    else if (type == int.class)
+    {
+      return 0;
+    }
+    else if (type == long.class)
+    {
+      return 0L;
+    }
+    else if (type.isPrimitive() && type != void.class)
+    {
+      throw new UnsupportedOperationException("No default for " + type);
+    }
+    else
+    {
+      return null;
+    }
+  }
+}
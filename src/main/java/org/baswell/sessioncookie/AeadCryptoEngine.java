@@ -0,0 +1,168 @@
+package org.baswell.sessioncookie;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encrypts and authenticates session cookies with AES-GCM or ChaCha20-Poly1305. The sealed bytes are the 12 byte nonce followed by the ciphertext and 16 byte
+ * tag. Each nonce is a random prefix chosen when the engine is created followed by a counter that starts at a random value, so nonces never repeat for a key
+ * within an engine and are very unlikely to between engines sharing a key. The JDK checks the tag in constant time before returning any plaintext.
+ */
+class AeadCryptoEngine implements SessionCookieCryptoEngine
+{
+  static final int NONCE_LENGTH = 12;
+
+  static final int TAG_LENGTH = 16;
+
+  /**
+   * @return true if the algorithm is AES in GCM mode (like {@link SessionCookieParameters#AES_GCM_ALGORITHM}) or {@link SessionCookieParameters#CHACHA20_POLY1305_ALGORITHM}.
+   */
+  static boolean isAead(String algorithm)
+  {
+    return isGcm(algorithm) || algorithm.equalsIgnoreCase(SessionCookieParameters.CHACHA20_POLY1305_ALGORITHM);
+  }
+
+  /**
+   * @return The algorithm of the key for the transformation, like <code>AES</code> for <code>AES/GCM/NoPadding</code>.
+   */
+  static String keyAlgorithm(String algorithm)
+  {
+    if (isGcm(algorithm))
+    {
+      return algorithm.substring(0, algorithm.indexOf('/'));
+    }
+    else if (algorithm.equalsIgnoreCase(SessionCookieParameters.CHACHA20_POLY1305_ALGORITHM))
+    {
+      return "ChaCha20";
+    }
+    else
+    {
+      return algorithm;
+    }
+  }
+
+  private static boolean isGcm(String algorithm)
+  {
+    return algorithm.toUpperCase().contains("/GCM/");
+  }
+
+  private final String algorithm;
+
+  private final boolean gcm;
+
+  private final SecretKeySpec keySpec;
+
+  private final int noncePrefix;
+
+  private final AtomicLong nonceCounter;
+
+  private final Queue<Cipher> ciphers = new ConcurrentLinkedQueue<>();
+
+  AeadCryptoEngine(String algorithm, byte[] key) throws GeneralSecurityException
+  {
+    this.algorithm = algorithm;
+    gcm = isGcm(algorithm);
+    keySpec = new SecretKeySpec(key, keyAlgorithm(algorithm));
+
+    SecureRandom random = new SecureRandom();
+    noncePrefix = random.nextInt();
+    nonceCounter = new AtomicLong(random.nextLong());
+
+    Cipher cipher = Cipher.getInstance(algorithm);
+    cipher.init(Cipher.ENCRYPT_MODE, keySpec, parameterSpec(nextNonce(), 0));
+  }
+
+  @Override
+  public byte[] seal(byte[] associatedData, byte[] plaintext) throws GeneralSecurityException
+  {
+    byte[] nonce = nextNonce();
+    Cipher cipher = borrow();
+    cipher.init(Cipher.ENCRYPT_MODE, keySpec, parameterSpec(nonce, 0));
+    cipher.updateAAD(associatedData);
+
+    byte[] sealed = new byte[NONCE_LENGTH + cipher.getOutputSize(plaintext.length)];
+    System.arraycopy(nonce, 0, sealed, 0, NONCE_LENGTH);
+    int length = NONCE_LENGTH + cipher.doFinal(plaintext, 0, plaintext.length, sealed, NONCE_LENGTH);
+    ciphers.offer(cipher);
+
+    if (length < sealed.length)
+    {
+      byte[] trimmed = new byte[length];
+      System.arraycopy(sealed, 0, trimmed, 0, length);
+      sealed = trimmed;
+    }
+    return sealed;
+  }
+
+  @Override
+  public byte[] open(byte[] associatedData, byte[] sealed, int offset, int length) throws GeneralSecurityException
+  {
+    if (length < NONCE_LENGTH + TAG_LENGTH)
+    {
+      throw new AEADBadTagException("Encrypted cookie value is too short.");
+    }
+
+    Cipher cipher = borrow();
+    try
+    {
+      try
+      {
+        cipher.init(Cipher.DECRYPT_MODE, keySpec, parameterSpec(sealed, offset));
+      }
+      catch (InvalidKeyException e)
+      {
+        /*
+         * The JDK's ChaCha20-Poly1305 refuses to be initialized with the nonce it was last initialized with, even to decrypt, so opening the same cookie twice
+         * in a row needs a new cipher.
+         */
+        cipher = Cipher.getInstance(algorithm);
+        cipher.init(Cipher.DECRYPT_MODE, keySpec, parameterSpec(sealed, offset));
+      }
+      cipher.updateAAD(associatedData);
+      return cipher.doFinal(sealed, offset + NONCE_LENGTH, length - NONCE_LENGTH);
+    }
+    finally
+    {
+      /*
+       * The cipher is initialized again before every use so it can be reused even after a bad tag.
+       */
+      ciphers.offer(cipher);
+    }
+  }
+
+  byte[] nextNonce()
+  {
+    long counter = nonceCounter.getAndIncrement();
+    byte[] nonce = new byte[NONCE_LENGTH];
+    for (int i = 0; i < 4; i++)
+    {
+      nonce[i] = (byte) (noncePrefix >>> (24 - i * 8));
+    }
+    for (int i = 0; i < 8; i++)
+    {
+      nonce[4 + i] = (byte) (counter >>> (56 - i * 8));
+    }
+    return nonce;
+  }
+
+  private AlgorithmParameterSpec parameterSpec(byte[] nonce, int offset)
+  {
+    return gcm ? new GCMParameterSpec(TAG_LENGTH * 8, nonce, offset, NONCE_LENGTH) : new IvParameterSpec(nonce, offset, NONCE_LENGTH);
+  }
+
+  private Cipher borrow() throws GeneralSecurityException
+  {
+    Cipher cipher = ciphers.poll();
+    return cipher == null ? Cipher.getInstance(algorithm) : cipher;
+  }
+}
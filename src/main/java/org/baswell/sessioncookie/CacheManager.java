@@ -1,49 +1,90 @@
 package org.baswell.sessioncookie;
 
-import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import java.security.GeneralSecurityException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
 
-import static org.baswell.sessioncookie.CookieBackedSession.SESSION_ID_KEY;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
-class CacheManager implements Runnable
+class CacheManager
 {
-  private final SessionCookieParameters parameters;
+  static final String PURGE_THREAD_NAME = "SessionCookie Session Cache Purger";
+
+  private final CurrentParameters parameters;
 
   private final SessionCookieErrorHandler errorHandler;
 
-  private final Map<String, CookieBackedSession> cache = new ConcurrentHashMap<>();
+  private final SessionCookieMetrics metrics;
+
+  private final SessionCache cache;
+
+  /**
+   * Cached sessions indexed by the cookie value the client holds for them. A session is in here only while it's in {@link #cache} so this is bounded by the
+   * same maximum. The cookie value's hash is the digest used for the lookup and the full value is compared on a match, so a changed cookie can never
+   * resolve to the wrong session.
+   */
+  private final Map<String, CookieBackedSession> cookieValueCache = new ConcurrentHashMap<>();
 
-  private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+  private final LongAdder cookieValueCacheHits = new LongAdder();
 
-  private final ReentrantReadWriteLock.ReadLock readLock = readWriteLock.readLock();
+  private final LongAdder cookieValueCacheMisses = new LongAdder();
 
-  private final ReentrantReadWriteLock.WriteLock writeLock = readWriteLock.writeLock();
+  /**
+   * The scheduler given by the application, if any. It's used instead of creating one and is never shut down here.
+   */
+  private final ScheduledExecutorService providedScheduler;
 
-  private volatile Thread backgroundThread;
+  private ScheduledExecutorService scheduler;
 
-  private long lastCleanedAt;
+  private volatile ScheduledFuture<?> scheduledPurge;
 
-  private volatile boolean cleaning;
+  private volatile boolean destroyed;
 
-  public CacheManager(SessionCookieParameters parameters, SessionCookieErrorHandler errorHandler)
+  private volatile long nextPurgeAt;
+
+  private volatile boolean purging;
+
+  CacheManager(CurrentParameters parameters, SessionCookieErrorHandler errorHandler)
+  {
+    this(parameters, errorHandler, SessionCookieMetrics.NONE, null);
+  }
+
+  CacheManager(CurrentParameters parameters, SessionCookieErrorHandler errorHandler, SessionCookieMetrics metrics, ScheduledExecutorService scheduler)
   {
     this.parameters = parameters;
     this.errorHandler = errorHandler;
+    this.metrics = metrics;
+    providedScheduler = scheduler;
+    cache = new SessionCache(parameters, (session, expired) ->
+    {
+      removeCookieValue(session);
+      if (!expired)
+      {
+        metrics.onCacheEviction();
+      }
+
+      Object event = SessionCookieEvents.EVICT.begin();
+      if (event != null)
+      {
+        SessionCookieEvents.EVICT.commit(event, session.attributeCount(), expired ? SessionCookieEvents.EXPIRED : SessionCookieEvents.EVICTED);
+      }
+    });
   }
 
   CookieBackedSession getSession(HttpServletRequest request, boolean createNewIfNecessary)
   {
-    boolean usePool = useCache();
+    ParametersSnapshot snapshot = parameters.get();
+    boolean usePool = useCache(snapshot);
 
     if (usePool)
     {
-      if (parameters.getPurgeSessionCacheWithBackgroundThread())
+      if (snapshot.purgeSessionCacheWithBackgroundThread)
       {
         startIfNecessary();
       }
@@ -52,101 +93,128 @@ class CacheManager implements Runnable
         purgeIfNecessary();
       }
     }
+    else if (cache.size() > 0)
+    {
+      /*
+       * The cache was turned off by a reload. Neither purge mode runs while it's off so it's emptied here.
+       */
+      purge();
+    }
+
+    String cookieValue = RequestWrapper.getSessionCookieValue(request, snapshot.cookieName);
 
-    String cookieValue = null;
-    Cookie[] cookies = request.getCookies();
-    if (cookies != null)
+    if (cookieValue != null)
     {
-      String cookieName = parameters.getCookieName();
-      for (Cookie cookie : cookies)
+      Object event = SessionCookieEvents.DECODE.begin();
+      if (usePool)
       {
-        if (cookie.getName().equalsIgnoreCase(cookieName))
+        CookieBackedSession session = cookieValueCache.get(cookieValue);
+        if (session != null)
         {
-          cookieValue = cookie.getValue();
-          break;
+          if (!snapshot.keyRing.opens(session.cookieKeyId, session.cookieCiphers))
+          {
+            /*
+             * The key that opened this cookie has been replaced, retired or removed since, so the cookie is opened again with the current keys.
+             */
+            cookieValueCache.remove(cookieValue, session);
+          }
+          else if (!session.hasExpired(snapshot.sessionTimeoutMinutes))
+          {
+            cookieValueCacheHits.increment();
+            metrics.onCacheHit();
+            decoded(event, cookieValue, session, SessionCookieEvents.HIT);
+            return session;
+          }
+          else
+          {
+            remove(session);
+          }
         }
+        cookieValueCacheMisses.increment();
+        metrics.onCacheMiss();
       }
-    }
 
-    if (cookieValue != null)
-    {
-      readLock.lock();
       try
       {
-        EncodedEncryptedCookieValue encodedEncryptedCookieValue = EncodedEncryptedCookieValue.decodeAndDecrypt(cookieValue, parameters.getSymmetricEncryptionKey(), parameters.getSymmetricEncryptionAlgorithm());
+        long start = System.nanoTime();
+        EncodedEncryptedCookieValue encodedEncryptedCookieValue = EncodedEncryptedCookieValue.decodeAndDecrypt(cookieValue, snapshot.keyRing);
+        metrics.onDecrypt(System.nanoTime() - start);
         try
         {
-          EncodedMap controlData = new EncodedMap(encodedEncryptedCookieValue.controlData);
-
-          try
+          CookieBackedSession session = new CookieBackedSession(encodedEncryptedCookieValue.controlData, encodedEncryptedCookieValue.sessionData, errorHandler);
+          session.metrics = metrics;
+          session.cookieKeyId = encodedEncryptedCookieValue.keyId;
+          session.cookieCiphers = encodedEncryptedCookieValue.ciphers;
+          session.cookieValue = cookieValue;
+          if (usePool)
           {
-            CookieBackedSession session;
-            if (usePool)
+            CookieBackedSession cachedSession = cache.get(session.getId());
+            if (cachedSession != null)
             {
-              String sessionId = (String)controlData.get(SESSION_ID_KEY);
-              session = cache.get(sessionId);
-              if (session == null)
-              {
-                session = new CookieBackedSession(controlData, new EncodedMap(encodedEncryptedCookieValue.sessionData));
-              }
+              session = cachedSession;
             }
-            else
+          }
+
+          if (session.hasExpired(snapshot.sessionTimeoutMinutes))
+          {
+            if (usePool)
             {
-              session = new CookieBackedSession(controlData, new EncodedMap(encodedEncryptedCookieValue.sessionData));
+              remove(session);
             }
-
-            if (session.hasExpired(parameters.getSessionTimeoutMinutes()))
+            decoded(event, cookieValue, session, SessionCookieEvents.EXPIRED);
+          }
+          else
+          {
+            if (usePool)
             {
-              session = null;
-              if (usePool)
+              CookieBackedSession cachedSession = cache.putIfAbsent(session);
+              if (cachedSession == null)
               {
-                cache.remove(session.getId());
+                index(session, cookieValue);
               }
-            }
-            else
-            {
-              if (usePool && !cache.containsKey(session.getId()))
+              else
               {
-                cache.put(session.getId(), session);
+                session = cachedSession;
               }
-              return session;
             }
+            decoded(event, cookieValue, session, usePool ? SessionCookieEvents.MISS : SessionCookieEvents.DISABLED);
+            return session;
           }
-          catch (ClassNotFoundException exception)
-          {
-            errorHandler.onClassNotFoundFromSessionException(exception);
-          }
-
         }
         catch (ClassNotFoundException exception)
         {
-          throw new RuntimeException(exception);
+          metrics.onDecodeFailure();
+          errorHandler.onClassNotFoundFromSessionException(exception);
+          decoded(event, cookieValue, null, SessionCookieEvents.FAILED);
         }
       }
       catch (GeneralSecurityException e)
       {
-        errorHandler.onGeneralSecurityException(e, parameters, false);
+        metrics.onDecryptFailure();
+        errorHandler.onGeneralSecurityException(e, parameters.source, false);
+        decoded(event, cookieValue, null, SessionCookieEvents.FAILED);
       }
       catch (SessionCookieDecryptionException e)
       {
+        metrics.onDecryptFailure();
         errorHandler.onCookieDecryptError(e);
+        decoded(event, cookieValue, null, SessionCookieEvents.FAILED);
       }
       catch (SessionCookieDecodingException e)
       {
+        metrics.onDecodeFailure();
         errorHandler.onCookieDecodeError(e);
-      }
-      finally
-      {
-        readLock.unlock();
+        decoded(event, cookieValue, null, SessionCookieEvents.FAILED);
       }
     }
 
     if (createNewIfNecessary)
     {
-      CookieBackedSession session = new CookieBackedSession(parameters.getInactivityTimeoutSeconds());
+      CookieBackedSession session = new CookieBackedSession(snapshot.inactivityTimeoutSeconds, errorHandler);
+      session.metrics = metrics;
       if (usePool)
       {
-        cache.put(session.getId(), session);
+        cache.putIfAbsent(session);
       }
       return session;
     }
@@ -156,22 +224,103 @@ class CacheManager implements Runnable
     }
   }
 
+  /**
+   * Commits the decode event, if one is being recorded, for a received cookie that resolved to the given session. The session is null if the cookie couldn't be
+   * decrypted or decoded.
+   */
+  private static void decoded(Object event, String cookieValue, CookieBackedSession session, String cacheOutcome)
+  {
+    if (event != null)
+    {
+      SessionCookieEvents.DECODE.commit(event, cookieValue.length(), session == null ? -1 : session.attributeCount(), cacheOutcome);
+    }
+  }
+
+  /**
+   * Called after a new cookie value has been issued for the given session so the next request that sends it back finds the session without decrypting.
+   * The session may have been touched or had its timeout changed so its expiration is rescheduled.
+   *
+   * @param ciphers The key the cookie value was sealed with
+   */
+  void cookieIssued(CookieBackedSession session, String cookieValue, KeyedCiphers ciphers)
+  {
+    if (useCache() && cache.contains(session))
+    {
+      cache.reschedule(session);
+      String previousCookieValue = session.cookieValue;
+      session.cookieKeyId = ciphers.keyId;
+      session.cookieCiphers = ciphers;
+      session.cookieValue = cookieValue;
+      if (previousCookieValue != null)
+      {
+        cookieValueCache.remove(previousCookieValue, session);
+      }
+      index(session, cookieValue);
+    }
+  }
+
+  /**
+   * Indexes the session by its cookie value. If the session was evicted concurrently the eviction may have missed this entry, so it's checked again
+   * after the entry is added.
+   */
+  private void index(CookieBackedSession session, String cookieValue)
+  {
+    cookieValueCache.put(cookieValue, session);
+    if (!cache.contains(session))
+    {
+      cookieValueCache.remove(cookieValue, session);
+    }
+  }
+
+  /**
+   * Removes the given session from the cache, if it's there.
+   */
+  void remove(CookieBackedSession session)
+  {
+    cache.remove(session);
+    removeCookieValue(session);
+  }
+
+  private void removeCookieValue(CookieBackedSession session)
+  {
+    String sessionCookieValue = session.cookieValue;
+    if (sessionCookieValue != null)
+    {
+      cookieValueCache.remove(sessionCookieValue, session);
+    }
+  }
+
+  /**
+   * @return The number of requests whose session was found by its cookie value without decrypting the cookie.
+   */
+  long getCookieValueCacheHits()
+  {
+    return cookieValueCacheHits.sum();
+  }
+
+  /**
+   * @return The number of requests whose cookie value wasn't cached and had to be decrypted.
+   */
+  long getCookieValueCacheMisses()
+  {
+    return cookieValueCacheMisses.sum();
+  }
+
   void purgeIfNecessary()
   {
-    int secondsSinceLastClean = (int)((System.currentTimeMillis() - lastCleanedAt) / 1000l);
-    if (!cleaning && secondsSinceLastClean < parameters.getMinimumSecondsBetweenSessionCachePurges())
+    if (!purging && System.currentTimeMillis() >= nextPurgeAt)
     {
-      boolean clean = false;
+      boolean purge = false;
       synchronized (this)
       {
-        if (!cleaning && secondsSinceLastClean < parameters.getMinimumSecondsBetweenSessionCachePurges())
+        if (!purging && System.currentTimeMillis() >= nextPurgeAt)
         {
-          cleaning = true;
-          clean = true;
+          purging = true;
+          purge = true;
         }
       }
 
-      if (clean)
+      if (purge)
       {
         try
         {
@@ -179,8 +328,8 @@ class CacheManager implements Runnable
         }
         finally
         {
-          cleaning = false;
-          lastCleanedAt = System.currentTimeMillis();
+          nextPurgeAt = System.currentTimeMillis() + nextPurgeDelayMillis();
+          purging = false;
         }
       }
     }
@@ -190,117 +339,173 @@ class CacheManager implements Runnable
   {
     if (!useCache())
     {
-      if (!cache.isEmpty())
+      if (cache.size() > 0)
       {
-        writeLock.lock();
-        try
-        {
-          cache.clear();
-        }
-        finally
-        {
-          writeLock.unlock();
-        }
+        cache.clear();
+        cookieValueCache.clear();
       }
     }
     else
     {
-      List<String> expiredSessionIds = new ArrayList<>();
-      int maxSessionMinutes = parameters.getSessionTimeoutMinutes();
-      for (CookieBackedSession session : cache.values())
-      {
-        if (session.hasExpired(maxSessionMinutes))
-        {
-          expiredSessionIds.add(session.getId());
-        }
-      }
-
-      writeLock.lock();
-      try
+      Object event = SessionCookieEvents.PURGE.begin();
+      long start = System.nanoTime();
+      int sessionsRemoved = cache.expire();
+      metrics.onPurge(System.nanoTime() - start, sessionsRemoved);
+      if (event != null)
       {
-        for (String expiredSessionId : expiredSessionIds)
-        {
-          cache.remove(expiredSessionId);
-        }
-      } finally
-      {
-        writeLock.unlock();
+        SessionCookieEvents.PURGE.commit(event, sessionsRemoved, cache.size());
       }
+    }
+  }
 
-      int maxSize = parameters.getMaxInMemorySessions();
-      if (maxSize >= 0)
+  /**
+   * Schedules the next background purge if one isn't scheduled already.
+   */
+  void startIfNecessary()
+  {
+    if (scheduledPurge == null && !destroyed)
+    {
+      synchronized (this)
       {
-        int numberSessionsToRemove = cache.size() - maxSize;
-        if (numberSessionsToRemove > 0)
+        if (scheduledPurge == null && !destroyed)
         {
-          List<CookieBackedSession> sessionsToRemove = new ArrayList<>();
-          for (CookieBackedSession session : cache.values())
-          {
-            if (sessionsToRemove.size() < numberSessionsToRemove)
-            {
-              sessionsToRemove.add(session);
-            }
-            else
-            {
-              for (int i = 0; i < sessionsToRemove.size(); i++)
-              {
-                if (sessionsToRemove.get(i).getLastAccessedAt() > session.getLastAccessedAt())
-                {
-                  sessionsToRemove.set(i, session);
-                  break;
-                }
-              }
-            }
-          }
-
-          writeLock.lock();
-          try
-          {
-            for (CookieBackedSession session : sessionsToRemove)
-            {
-              cache.remove(session.getId());
-            }
-          } finally
+          if (scheduler == null)
           {
-            writeLock.unlock();
+            scheduler = providedScheduler == null ? createScheduler() : providedScheduler;
           }
+          scheduledPurge = scheduler.schedule(this::purgeAndReschedule, nextPurgeDelayMillis(), MILLISECONDS);
         }
       }
     }
   }
 
-  void startIfNecessary()
+  /**
+   * Cancels the background purge, shuts down the scheduler if it was created here and empties the cache. Sessions are no longer cached after this.
+   */
+  synchronized void destroy()
+  {
+    destroyed = true;
+    if (scheduledPurge != null)
+    {
+      scheduledPurge.cancel(false);
+      scheduledPurge = null;
+    }
+
+    if (scheduler != null && scheduler != providedScheduler)
+    {
+      scheduler.shutdownNow();
+    }
+    scheduler = null;
+
+    cache.clear();
+    cookieValueCache.clear();
+  }
+
+  /**
+   * @return The number of sessions in the cache.
+   */
+  int size()
+  {
+    return cache.size();
+  }
+
+  boolean useCache()
+  {
+    return useCache(parameters.get());
+  }
+
+  private boolean useCache(ParametersSnapshot snapshot)
+  {
+    return !destroyed && snapshot.useCache;
+  }
+
+  /**
+   * The time until the next purge adapts to how full the cache is. A cache that's nearly full is purged more often so expired sessions don't take space from live
+   * ones, an empty cache is purged less often.
+   *
+   * @return {@link SessionCookieParameters#getMinimumSecondsBetweenSessionCachePurges()} scaled by how full the cache is.
+   */
+  long nextPurgeDelayMillis()
+  {
+    ParametersSnapshot snapshot = parameters.get();
+    long intervalMillis = Math.max(1, snapshot.minimumSecondsBetweenSessionCachePurges) * 1000L;
+    int size = cache.size();
+    int maximum = snapshot.maxInMemorySessions;
+    if (size == 0)
+    {
+      return intervalMillis * 4;
+    }
+    else if (size >= maximum * 0.9)
+    {
+      return Math.max(1000L, intervalMillis / 4);
+    }
+    else if (size >= maximum / 2)
+    {
+      return Math.max(1000L, intervalMillis / 2);
+    }
+    else
+    {
+      return intervalMillis;
+    }
+  }
+
+  private void purgeAndReschedule()
   {
-    if (useCache() && backgroundThread == null)
+    try
+    {
+      purge();
+    }
+    finally
     {
       synchronized (this)
       {
-        if (backgroundThread == null && !backgroundThread.isAlive())
+        if (parameters.get().purgeSessionCacheWithBackgroundThread && useCache())
+        {
+          scheduledPurge = scheduler.schedule(this::purgeAndReschedule, nextPurgeDelayMillis(), MILLISECONDS);
+        }
+        else
         {
-          backgroundThread = new Thread(this, "SessionCookie Session Cleander");
-          backgroundThread.start();
+          scheduledPurge = null;
         }
       }
     }
   }
 
-  boolean useCache()
+  private ScheduledExecutorService createScheduler()
   {
-    return parameters.getMaxInMemorySessions() > 0;
+    ThreadFactory threadFactory = parameters.get().purgeSessionCacheWithVirtualThread ? virtualThreadFactory() : null;
+    if (threadFactory == null)
+    {
+      threadFactory = runnable ->
+      {
+        Thread thread = new Thread(runnable, PURGE_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
   }
 
-  @Override
-  public void run()
+  /**
+   * Virtual threads are only available from Java 21 so they're created reflectively.
+   *
+   * @return A factory of virtual threads or null if this JVM doesn't support them.
+   */
+  static ThreadFactory virtualThreadFactory()
   {
-    while (backgroundThread == Thread.currentThread() && parameters.getPurgeSessionCacheWithBackgroundThread() && useCache())
+    try
     {
-      purge();
-      try
-      {
-        Thread.sleep(parameters.getMinimumSecondsBetweenSessionCachePurges() * 1000l);
-      }
-      catch (Exception e)
-      {}
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class).invoke(builder, PURGE_THREAD_NAME);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+    catch (ReflectiveOperationException | RuntimeException e)
+    {
+      return null;
     }
   }
 }
@@ -0,0 +1,74 @@
+package org.baswell.sessioncookie;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Encrypts with any {@link Cipher} transformation that needs no parameters, like the default <code>AES</code> (AES/ECB/PKCS5Padding). This is how session cookies
+ * have always been encrypted. It doesn't authenticate so tampering is only noticed when decoding fails. Initialized ciphers are kept for reuse across requests
+ * so the cost of a cookie is only the block work.
+ */
+class CipherCryptoEngine implements SessionCookieCryptoEngine
+{
+  private final String algorithm;
+
+  private final SecretKeySpec keySpec;
+
+  private final Queue<Cipher> encryptCiphers = new ConcurrentLinkedQueue<>();
+
+  private final Queue<Cipher> decryptCiphers = new ConcurrentLinkedQueue<>();
+
+  CipherCryptoEngine(String algorithm, byte[] key) throws GeneralSecurityException
+  {
+    this.algorithm = algorithm;
+    keySpec = new SecretKeySpec(key, algorithm);
+    decryptCiphers.offer(borrow(decryptCiphers, Cipher.DECRYPT_MODE));
+  }
+
+  @Override
+  public byte[] seal(byte[] associatedData, byte[] plaintext) throws GeneralSecurityException
+  {
+    Cipher cipher = borrow(encryptCiphers, Cipher.ENCRYPT_MODE);
+    byte[] encrypted = cipher.doFinal(plaintext);
+    /*
+     * Ciphers that generated an IV on initialization are not reused since the same IV would then be used for every cookie.
+     */
+    if (cipher.getIV() == null)
+    {
+      encryptCiphers.offer(cipher);
+    }
+    return encrypted;
+  }
+
+  @Override
+  public byte[] open(byte[] associatedData, byte[] sealed, int offset, int length) throws GeneralSecurityException
+  {
+    Cipher cipher = borrow(decryptCiphers, Cipher.DECRYPT_MODE);
+    byte[] plaintext = cipher.doFinal(sealed, offset, length);
+    /*
+     * Ciphers that failed are not reused since their state is unknown.
+     */
+    decryptCiphers.offer(cipher);
+    return plaintext;
+  }
+
+  @Override
+  public boolean isAuthenticated()
+  {
+    return false;
+  }
+
+  private Cipher borrow(Queue<Cipher> ciphers, int mode) throws GeneralSecurityException
+  {
+    Cipher cipher = ciphers.poll();
+    if (cipher == null)
+    {
+      cipher = Cipher.getInstance(algorithm);
+      cipher.init(mode, keySpec);
+    }
+    return cipher;
+  }
+}
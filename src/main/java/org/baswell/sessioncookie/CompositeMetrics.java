@@ -0,0 +1,113 @@
+package org.baswell.sessioncookie;
+
+/**
+ * Reports every measurement to each of the given metrics in order.
+ */
+class CompositeMetrics implements SessionCookieMetrics
+{
+  private final SessionCookieMetrics[] metrics;
+
+  CompositeMetrics(SessionCookieMetrics... metrics)
+  {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void onDecrypt(long nanos)
+  {
+    for (SessionCookieMetrics m : metrics)
+    {
+      m.onDecrypt(nanos);
+    }
+  }
+
+  @Override
+  public void onDecode(long nanos)
+  {
+    for (SessionCookieMetrics m : metrics)
+    {
+      m.onDecode(nanos);
+    }
+  }
+
+  @Override
+  public void onEncode(long nanos)
+  {
+    for (SessionCookieMetrics m : metrics)
+    {
+      m.onEncode(nanos);
+    }
+  }
+
+  @Override
+  public void onEncrypt(long nanos)
+  {
+    for (SessionCookieMetrics m : metrics)
+    {
+      m.onEncrypt(nanos);
+    }
+  }
+
+  @Override
+  public void onCookieSize(int bytes)
+  {
+    for (SessionCookieMetrics m : metrics)
+    {
+      m.onCookieSize(bytes);
+    }
+  }
+
+  @Override
+  public void onCacheHit()
+  {
+    for (SessionCookieMetrics m : metrics)
+    {
+      m.onCacheHit();
+    }
+  }
+
+  @Override
+  public void onCacheMiss()
+  {
+    for (SessionCookieMetrics m : metrics)
+    {
+      m.onCacheMiss();
+    }
+  }
+
+  @Override
+  public void onCacheEviction()
+  {
+    for (SessionCookieMetrics m : metrics)
+    {
+      m.onCacheEviction();
+    }
+  }
+
+  @Override
+  public void onPurge(long nanos, int sessionsRemoved)
+  {
+    for (SessionCookieMetrics m : metrics)
+    {
+      m.onPurge(nanos, sessionsRemoved);
+    }
+  }
+
+  @Override
+  public void onDecryptFailure()
+  {
+    for (SessionCookieMetrics m : metrics)
+    {
+      m.onDecryptFailure();
+    }
+  }
+
+  @Override
+  public void onDecodeFailure()
+  {
+    for (SessionCookieMetrics m : metrics)
+    {
+      m.onDecodeFailure();
+    }
+  }
+}
@@ -4,8 +4,10 @@ import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import javax.servlet.http.HttpSessionContext;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.UUID;
@@ -23,9 +25,61 @@ class CookieBackedSession implements HttpSession
 
   static final String SESSION_INACTIVITY_TIMEOUT_KEY = "sessionInactivityTimeout";
 
-  EncodedMap controlData;
+  /**
+   * Leading byte of the fixed layout control data. Control data that does not start with this byte is an {@link EncodedMap} from an older cookie.
+   */
+  static final byte CONTROL_DATA_VERSION = 0x02;
+
+  /**
+   * Version byte, 16 byte session ID, created at, last accessed at and inactivity timeout.
+   */
+  static final int CONTROL_DATA_LENGTH = 1 + 16 + 8 + 8 + 4;
+
+  long sessionIdMostSignificantBits;
+
+  long sessionIdLeastSignificantBits;
+
+  long createdAt;
+
+  long lastAccessedAt;
+
+  int sessionInactivityTimeout;
+
+  private String sessionId;
+
+  /**
+   * The session data section as it was received in the cookie. This is only decoded into {@link #sessionData} when an attribute is first accessed.
+   */
+  private byte[] encodedSessionData;
+
+  private EncodedMap sessionData;
+
+  private final SessionCookieErrorHandler errorHandler;
 
-  EncodedMap sessionData;
+  /**
+   * The control and session data sections the client currently holds, either from the cookie that was received or the last cookie issued for this session.
+   */
+  private byte[] receivedControlData;
+
+  private byte[] receivedSessionData;
+
+  /**
+   * The cookie value the client currently holds for this session, if known. Used by {@link CacheManager} to find this session without decrypting the cookie.
+   */
+  volatile String cookieValue;
+
+  /**
+   * The key ID {@link #cookieValue} carries, or {@link KeyedCiphers#NO_KEY_ID}, and the key that sealed or opened it. A cookie value found by {@link CacheManager}
+   * is only accepted while the current {@link KeyRing} still opens it with this key.
+   */
+  volatile int cookieKeyId = KeyedCiphers.NO_KEY_ID;
+
+  volatile KeyedCiphers cookieCiphers;
+
+  /**
+   * Receives decode timings and failures. Set by {@link CacheManager} for the sessions it creates.
+   */
+  SessionCookieMetrics metrics = SessionCookieMetrics.NONE;
 
   HttpServletRequest currentRequest;
 
@@ -35,68 +89,196 @@ class CookieBackedSession implements HttpSession
 
   boolean invalidated;
 
-  CookieBackedSession(int sessionInactivityTimeoutSeconds)
+  CookieBackedSession(int sessionInactivityTimeoutSeconds, SessionCookieErrorHandler errorHandler)
   {
+    this.errorHandler = errorHandler;
     newSession = true;
 
-    controlData = new EncodedMap();
     sessionData = new EncodedMap();
 
-    controlData.put(SESSION_ID_KEY, UUID.randomUUID().toString());
-    long now = System.currentTimeMillis();
-    controlData.put(CREATED_AT_KEY, now);
-    controlData.put(LAST_ACCESSED_AT_KEY, now);
-    controlData.put(SESSION_INACTIVITY_TIMEOUT_KEY, sessionInactivityTimeoutSeconds);
+    UUID id = UUID.randomUUID();
+    sessionIdMostSignificantBits = id.getMostSignificantBits();
+    sessionIdLeastSignificantBits = id.getLeastSignificantBits();
+    createdAt = lastAccessedAt = System.currentTimeMillis();
+    sessionInactivityTimeout = sessionInactivityTimeoutSeconds;
   }
 
-  CookieBackedSession(EncodedMap controlData, EncodedMap sessionData)
+  /**
+   * Restores a session from the control and session data sections of a cookie. The session data is not decoded until it's needed.
+   */
+  CookieBackedSession(byte[] controlData, byte[] encodedSessionData, SessionCookieErrorHandler errorHandler) throws ClassNotFoundException, SessionCookieDecodingException
   {
-    this.controlData = controlData;
-    this.sessionData = sessionData;
+    this.encodedSessionData = encodedSessionData;
+    this.errorHandler = errorHandler;
+    receivedControlData = controlData;
+    receivedSessionData = encodedSessionData;
+
+    if (controlData.length == CONTROL_DATA_LENGTH && controlData[0] == CONTROL_DATA_VERSION)
+    {
+      sessionIdMostSignificantBits = readLong(controlData, 1);
+      sessionIdLeastSignificantBits = readLong(controlData, 9);
+      createdAt = readLong(controlData, 17);
+      lastAccessedAt = readLong(controlData, 25);
+      sessionInactivityTimeout = readInt(controlData, 33);
+    }
+    else
+    {
+      EncodedMap legacyControlData = new EncodedMap(controlData);
+      try
+      {
+        UUID id = UUID.fromString((String) legacyControlData.get(SESSION_ID_KEY));
+        sessionIdMostSignificantBits = id.getMostSignificantBits();
+        sessionIdLeastSignificantBits = id.getLeastSignificantBits();
+        createdAt = (long) legacyControlData.get(CREATED_AT_KEY);
+        lastAccessedAt = (long) legacyControlData.get(LAST_ACCESSED_AT_KEY);
+        sessionInactivityTimeout = (int) legacyControlData.get(SESSION_INACTIVITY_TIMEOUT_KEY);
+      }
+      catch (IllegalArgumentException | ClassCastException | NullPointerException e)
+      {
+        throw new SessionCookieDecodingException("Invalid session control data.", legacyControlData.toString(), e);
+      }
+    }
   }
 
-  boolean hasExpired(int maxSessionMinutes)
+  byte[] encodeControlData()
+  {
+    byte[] controlData = new byte[CONTROL_DATA_LENGTH];
+    controlData[0] = CONTROL_DATA_VERSION;
+    writeLong(controlData, 1, sessionIdMostSignificantBits);
+    writeLong(controlData, 9, sessionIdLeastSignificantBits);
+    writeLong(controlData, 17, createdAt);
+    writeLong(controlData, 25, lastAccessedAt);
+    writeInt(controlData, 33, sessionInactivityTimeout);
+    return controlData;
+  }
+
+  /**
+   * @return true if the given sections are byte for byte what the client already holds.
+   */
+  boolean matchesReceived(byte[] controlData, byte[] sessionData)
   {
-    int minutesSinceCreated = (int)(System.currentTimeMillis() - getCreationTime()) / 1000 / 60;
-    if (minutesSinceCreated > maxSessionMinutes)
+    return receivedControlData != null && Arrays.equals(receivedControlData, controlData) && (receivedSessionData == sessionData || Arrays.equals(receivedSessionData, sessionData));
+  }
+
+  /**
+   * Called after a cookie holding the given sections was added to the response. The client now holds these sections and has joined the session.
+   */
+  void issued(byte[] controlData, byte[] sessionData)
+  {
+    receivedControlData = controlData;
+    receivedSessionData = sessionData;
+    newSession = false;
+    sessionChanged = false;
+  }
+
+  /**
+   * @return The session data section. If the session data was never decoded this is the same data that was received in the cookie.
+   */
+  synchronized byte[] encodeSessionData()
+  {
+    return sessionData == null ? encodedSessionData : sessionData.toBytes();
+  }
+
+  /**
+   * @return The number of attributes in the session without decoding the session data, or -1 if the count can't be read from data in the legacy format.
+   */
+  synchronized int attributeCount()
+  {
+    if (sessionData != null)
     {
-      return true;
+      return sessionData.size();
+    }
+    else if (encodedSessionData == null || encodedSessionData.length == 0)
+    {
+      return 0;
+    }
+    else if (encodedSessionData[0] == SessionDataCodec.FORMAT_VERSION)
+    {
+      try
+      {
+        SessionDataCodec.Reader reader = new SessionDataCodec.Reader(encodedSessionData, 1, encodedSessionData.length - 1);
+        return reader.readVarint();
+      }
+      catch (IOException e)
+      {
+        return -1;
+      }
     }
     else
     {
-      int maxInactivitySeconds = getMaxInactiveInterval();
-      if (maxInactivitySeconds >= 0)
+      return -1;
+    }
+  }
+
+  /**
+   * @return The decoded session data. If the session data cannot be decoded the error is reported and the session continues with no attributes.
+   */
+  synchronized EncodedMap sessionData()
+  {
+    if (sessionData == null)
+    {
+      try
+      {
+        long start = System.nanoTime();
+        sessionData = new EncodedMap(encodedSessionData);
+        metrics.onDecode(System.nanoTime() - start);
+      }
+      catch (ClassNotFoundException exception)
       {
-        int secondsSinceLastActivity = (int)(System.currentTimeMillis() - getLastAccessedAt()) / 1000;
-        return secondsSinceLastActivity > maxInactivitySeconds;
+        metrics.onDecodeFailure();
+        errorHandler.onClassNotFoundFromSessionException(exception);
       }
-      else
+      catch (SessionCookieDecodingException exception)
       {
-        return false;
+        metrics.onDecodeFailure();
+        errorHandler.onCookieDecodeError(exception);
       }
+
+      if (sessionData == null)
+      {
+        sessionData = new EncodedMap();
+        sessionChanged = true;
+      }
+      encodedSessionData = null;
     }
+    return sessionData;
   }
 
-  long getLastAccessedAt()
+  boolean hasExpired(int maxSessionMinutes)
   {
-    return (long) controlData.get(LAST_ACCESSED_AT_KEY);
+    return System.currentTimeMillis() > expiresAt(maxSessionMinutes);
   }
 
-  void update(HttpServletRequest currentRequest)
+  /**
+   * @return The time in milliseconds after which this session has expired, the earlier of its maximum lifetime and its inactivity timeout. Long.MAX_VALUE if it never expires.
+   */
+  long expiresAt(int maxSessionMinutes)
   {
-    this.currentRequest = currentRequest;
+    long expiresAt = Long.MAX_VALUE;
+    if (maxSessionMinutes >= 0)
+    {
+      expiresAt = createdAt + maxSessionMinutes * 60000L;
+    }
+    if (sessionInactivityTimeout >= 0)
+    {
+      expiresAt = Math.min(expiresAt, lastAccessedAt + sessionInactivityTimeout * 1000L);
+    }
+    return expiresAt;
+  }
+
+  long getLastAccessedAt()
+  {
+    return lastAccessedAt;
   }
 
-  void update(HttpServletRequest currentRequest, EncodedMap controlData, EncodedMap sessionData)
+  void update(HttpServletRequest currentRequest)
   {
-    update(currentRequest);
-    this.controlData = controlData;
-    this.sessionData = sessionData;
+    this.currentRequest = currentRequest;
   }
 
   void touch()
   {
-    controlData.put(LAST_ACCESSED_AT_KEY, System.currentTimeMillis());
+    lastAccessedAt = System.currentTimeMillis();
   }
 
   /**
@@ -107,7 +289,11 @@ class CookieBackedSession implements HttpSession
   @Override
   public String getId()
   {
-    return (String)controlData.get(SESSION_ID_KEY);
+    if (sessionId == null)
+    {
+      sessionId = new UUID(sessionIdMostSignificantBits, sessionIdLeastSignificantBits).toString();
+    }
+    return sessionId;
   }
 
   /**
@@ -118,7 +304,7 @@ class CookieBackedSession implements HttpSession
   @Override
   public long getCreationTime()
   {
-    return (long) controlData.get(CREATED_AT_KEY);
+    return createdAt;
   }
 
   /**
@@ -132,7 +318,7 @@ class CookieBackedSession implements HttpSession
   @Override
   public long getLastAccessedTime()
   {
-    return (long) controlData.get(LAST_ACCESSED_AT_KEY);
+    return lastAccessedAt;
   }
 
   /**
@@ -145,7 +331,25 @@ class CookieBackedSession implements HttpSession
   public Object getAttribute(String name)
   {
     assertValid();
-    return sessionData.get(name);
+    EncodedMap sessionData = sessionData();
+    try
+    {
+      return sessionData.decode(name);
+    }
+    catch (ClassNotFoundException exception)
+    {
+      metrics.onDecodeFailure();
+      errorHandler.onClassNotFoundFromSessionException(exception);
+    }
+    catch (SessionCookieDecodingException exception)
+    {
+      metrics.onDecodeFailure();
+      errorHandler.onCookieDecodeError(exception);
+    }
+
+    sessionData.remove(name);
+    sessionChanged = true;
+    return null;
   }
 
 
@@ -172,7 +376,7 @@ class CookieBackedSession implements HttpSession
     }
 
     sessionChanged = true;
-    sessionData.put(name, value);
+    sessionData().put(name, value);
   }
 
   /**
@@ -186,6 +390,7 @@ class CookieBackedSession implements HttpSession
   public void removeAttribute(String name)
   {
     assertValid();
+    EncodedMap sessionData = sessionData();
     if (sessionData.containsKey(name))
     {
       sessionChanged = true;
@@ -202,7 +407,7 @@ class CookieBackedSession implements HttpSession
   public Enumeration<String> getAttributeNames()
   {
     assertValid();
-    return new Vector<>(sessionData.keySet()).elements();
+    return new Vector<>(sessionData().keySet()).elements();
   }
 
 
@@ -214,7 +419,7 @@ class CookieBackedSession implements HttpSession
   @Override
   public int getMaxInactiveInterval()
   {
-    return (int) controlData.get(SESSION_INACTIVITY_TIMEOUT_KEY);
+    return sessionInactivityTimeout;
   }
 
   /**
@@ -225,7 +430,11 @@ class CookieBackedSession implements HttpSession
   @Override
   public void setMaxInactiveInterval(int interval)
   {
-    controlData.put(SESSION_INACTIVITY_TIMEOUT_KEY, interval);
+    if (interval != sessionInactivityTimeout)
+    {
+      sessionInactivityTimeout = interval;
+      sessionChanged = true;
+    }
   }
 
   /**
@@ -307,7 +516,11 @@ class CookieBackedSession implements HttpSession
   public void invalidate()
   {
     invalidated = true;
-    sessionData.clear();
+    synchronized (this)
+    {
+      sessionData = new EncodedMap();
+      encodedSessionData = null;
+    }
   }
 
   /**
@@ -329,4 +542,28 @@ class CookieBackedSession implements HttpSession
       throw new IllegalStateException("This session has been invalidated.");
     }
   }
+
+  static long readLong(byte[] data, int offset)
+  {
+    return ((long) readInt(data, offset) << 32) | (readInt(data, offset + 4) & 0xFFFFFFFFL);
+  }
+
+  static int readInt(byte[] data, int offset)
+  {
+    return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+  }
+
+  static void writeLong(byte[] data, int offset, long value)
+  {
+    writeInt(data, offset, (int) (value >>> 32));
+    writeInt(data, offset + 4, (int) value);
+  }
+
+  static void writeInt(byte[] data, int offset, int value)
+  {
+    data[offset] = (byte) (value >>> 24);
+    data[offset + 1] = (byte) (value >>> 16);
+    data[offset + 2] = (byte) (value >>> 8);
+    data[offset + 3] = (byte) value;
+  }
 }
@@ -0,0 +1,110 @@
+package org.baswell.sessioncookie;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Enumeration;
+
+/**
+ * Finds a single cookie's value in the raw <code>Cookie</code> request headers. {@link HttpServletRequest#getCookies()} parses every cookie the client sent
+ * into a new {@link Cookie} on many containers, while this only walks the header text and allocates the one value it returns. Cookie names are matched
+ * case sensitively as in RFC 6265.
+ */
+class CookieHeaderScanner
+{
+  static final String COOKIE_HEADER = "Cookie";
+
+  /**
+   * @return The value of the first cookie with the given name or null if the request doesn't have one. If the container doesn't allow access to the
+   * <code>Cookie</code> header {@link HttpServletRequest#getCookies()} is used instead.
+   */
+  static String findValue(HttpServletRequest request, String cookieName)
+  {
+    Enumeration<String> headers = request.getHeaders(COOKIE_HEADER);
+    if (headers == null)
+    {
+      Cookie[] cookies = request.getCookies();
+      if (cookies != null)
+      {
+        for (Cookie cookie : cookies)
+        {
+          if (cookie.getName().equals(cookieName))
+          {
+            return cookie.getValue();
+          }
+        }
+      }
+      return null;
+    }
+
+    while (headers.hasMoreElements())
+    {
+      String value = findValue(headers.nextElement(), cookieName);
+      if (value != null)
+      {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param header A <code>Cookie</code> header value like <code>a=1; b=2</code>
+   * @return The value of the first cookie with the given name in the header or null if it isn't there. A value in double quotes is returned without the quotes.
+   */
+  static String findValue(String header, String cookieName)
+  {
+    if (header == null)
+    {
+      return null;
+    }
+
+    int length = header.length();
+    int position = 0;
+    while (position < length)
+    {
+      int nameStart = skipWhitespace(header, position, length);
+      int pairEnd = header.indexOf(';', nameStart);
+      if (pairEnd < 0)
+      {
+        pairEnd = length;
+      }
+
+      int equals = header.indexOf('=', nameStart);
+      if (equals >= 0 && equals < pairEnd)
+      {
+        int nameEnd = trimWhitespace(header, nameStart, equals);
+        if (nameEnd - nameStart == cookieName.length() && header.regionMatches(nameStart, cookieName, 0, nameEnd - nameStart))
+        {
+          int valueStart = skipWhitespace(header, equals + 1, pairEnd);
+          int valueEnd = trimWhitespace(header, valueStart, pairEnd);
+          if (valueEnd - valueStart >= 2 && header.charAt(valueStart) == '"' && header.charAt(valueEnd - 1) == '"')
+          {
+            valueStart++;
+            valueEnd--;
+          }
+          return header.substring(valueStart, valueEnd);
+        }
+      }
+      position = pairEnd + 1;
+    }
+    return null;
+  }
+
+  private static int skipWhitespace(String header, int position, int end)
+  {
+    while (position < end && (header.charAt(position) == ' ' || header.charAt(position) == '\t'))
+    {
+      position++;
+    }
+    return position;
+  }
+
+  private static int trimWhitespace(String header, int start, int end)
+  {
+    while (end > start && (header.charAt(end - 1) == ' ' || header.charAt(end - 1) == '\t'))
+    {
+      end--;
+    }
+    return end;
+  }
+}
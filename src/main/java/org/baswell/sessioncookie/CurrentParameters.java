@@ -0,0 +1,91 @@
+package org.baswell.sessioncookie;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the current {@link ParametersSnapshot} of a {@link SessionCookieParameters}. The snapshot is replaced every {@link SessionCookieParameters#getParametersReloadSeconds()}
+ * by the first request thread that finds it due, while other request threads keep using the current snapshot, or whenever {@link #reload()} is called.
+ */
+class CurrentParameters
+{
+  final SessionCookieParameters source;
+
+  private final SessionCookieErrorHandler errorHandler;
+
+  private final AtomicBoolean reloading = new AtomicBoolean();
+
+  private volatile ParametersSnapshot snapshot;
+
+  private volatile long nextReloadAt;
+
+  /**
+   * @throws GeneralSecurityException If the encryption key cannot be retrieved for the first snapshot.
+   */
+  CurrentParameters(SessionCookieParameters source, SessionCookieErrorHandler errorHandler) throws GeneralSecurityException
+  {
+    this.source = source;
+    this.errorHandler = errorHandler;
+    reload();
+  }
+
+  /**
+   * @return The current snapshot.
+   */
+  ParametersSnapshot get()
+  {
+    return snapshot;
+  }
+
+  /**
+   * Reloads the snapshot if it's due. If the encryption key cannot be retrieved the error is reported and the current snapshot is kept until the next reload
+   * is due. The current snapshot is also kept, and the error reported, if a parameter like the cookie name, a cookie attribute or a key ID has been changed
+   * to an invalid value.
+   *
+   * @return The current snapshot.
+   */
+  ParametersSnapshot reloadIfDue()
+  {
+    if (System.currentTimeMillis() >= nextReloadAt && reloading.compareAndSet(false, true))
+    {
+      try
+      {
+        reload();
+      }
+      catch (GeneralSecurityException e)
+      {
+        errorHandler.onGeneralSecurityException(e, source, false);
+      }
+      catch (IllegalArgumentException e)
+      {
+        errorHandler.onInvalidParameters(e, source);
+      }
+      finally
+      {
+        reloading.set(false);
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * Takes a new snapshot of the parameters now.
+   *
+   * @return The new snapshot.
+   * @throws GeneralSecurityException If the encryption key cannot be retrieved. The current snapshot is kept.
+   * @throws IllegalArgumentException If the cookie name or attributes are invalid. The current snapshot is kept.
+   */
+  synchronized ParametersSnapshot reload() throws GeneralSecurityException, IllegalArgumentException
+  {
+    /*
+     * Pushed back before the parameters are read so a reload that fails isn't retried until the next one is due.
+     */
+    int reloadSeconds = snapshot == null ? source.getParametersReloadSeconds() : snapshot.parametersReloadSeconds;
+    nextReloadAt = reloadSeconds > 0 ? System.currentTimeMillis() + reloadSeconds * 1000L : Long.MAX_VALUE;
+
+    ParametersSnapshot snapshot = new ParametersSnapshot(source, this.snapshot);
+    nextReloadAt = snapshot.parametersReloadSeconds > 0 ? System.currentTimeMillis() + snapshot.parametersReloadSeconds * 1000L : Long.MAX_VALUE;
+    this.snapshot = snapshot;
+    return snapshot;
+  }
+}
@@ -1,61 +1,241 @@
 package org.baswell.sessioncookie;
 
-import javax.crypto.Cipher;
-import javax.crypto.spec.SecretKeySpec;
+import org.baswell.sessioncookie.SessionDataCodec.Reader;
+
+import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
 import java.util.Base64;
-import java.util.UnknownFormatConversionException;
 
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.baswell.sessioncookie.SessionDataCodec.Writer.varintSize;
 
+/**
+ * The control and session sections of a session cookie. The cookie value is written in the following format:
+ *
+ * <pre>
+ * cookie    := base64url(header seal(header, plaintext))
+ * header    := WIRE_FORMAT_VERSION | KEY_ID_WIRE_FORMAT_VERSION keyId:byte
+ * plaintext := controlLength:varint control sessionLength:varint session
+ * </pre>
+ *
+ * The plaintext is sealed by the {@link SessionCookieCryptoEngine} of the key with the header as associated data. A cookie sealed by a key with an ID
+ * ({@link SessionCookieParameters#getSymmetricEncryptionKeyId()}) carries the ID so it's opened by that key from the {@link KeyRing}, other cookies are opened by
+ * the active key. An engine that authenticates rejects a changed cookie before any of it is decoded.
+ *
+ * The Base64 encoding is URL safe and unpadded. Cookies written before this format existed (each section Base64 encoded, joined with {@link #LEGACY_DELIMITER},
+ * encrypted and Base64 encoded again) are still read.
+ */
 class EncodedEncryptedCookieValue
 {
+  static final byte WIRE_FORMAT_VERSION = 0x02;
+
+  static final byte KEY_ID_WIRE_FORMAT_VERSION = 0x03;
+
+  static final char LEGACY_DELIMITER = ',';
+
+  /**
+   * The associated data of cookies without a key ID.
+   */
+  private static final byte[] HEADER = {WIRE_FORMAT_VERSION};
+
   static EncodedEncryptedCookieValue decodeAndDecrypt(String encodedEncryptedValue, byte[] key, String algorithm) throws GeneralSecurityException, SessionCookieDecryptionException, SessionCookieDecodingException
   {
-    Cipher cipher = Cipher.getInstance(algorithm);
-    cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, algorithm));
+    return decodeAndDecrypt(encodedEncryptedValue, new KeyedCiphers(key, algorithm));
+  }
 
+  static EncodedEncryptedCookieValue decodeAndDecrypt(String encodedEncryptedValue, KeyedCiphers ciphers) throws GeneralSecurityException, SessionCookieDecryptionException, SessionCookieDecodingException
+  {
+    return decodeAndDecrypt(encodedEncryptedValue, new KeyRing(ciphers));
+  }
+
+  static EncodedEncryptedCookieValue decodeAndDecrypt(String encodedEncryptedValue, KeyRing keyRing) throws GeneralSecurityException, SessionCookieDecryptionException, SessionCookieDecodingException
+  {
+    byte[] encryptedData;
     try
     {
-      String data = new String(cipher.doFinal(Base64.getDecoder().decode(encodedEncryptedValue)));
-      String[] split = data.split(DELIMITER);
+      encryptedData = isUrlSafe(encodedEncryptedValue) ? Base64.getUrlDecoder().decode(encodedEncryptedValue) : Base64.getDecoder().decode(encodedEncryptedValue);
+    }
+    catch (IllegalArgumentException e)
+    {
+      throw new SessionCookieDecodingException("Invalid Base64 encoded cookie value.", encodedEncryptedValue, e);
+    }
+
+    KeyedCiphers active = keyRing.active;
+    byte version = encryptedData.length > 0 ? encryptedData[0] : 0;
+    if (version != WIRE_FORMAT_VERSION && version != KEY_ID_WIRE_FORMAT_VERSION && !active.engine.isAuthenticated())
+    {
+      return decodeLegacy(decrypt(encryptedData, 0, active, HEADER)).openedBy(KeyedCiphers.NO_KEY_ID, active);
+    }
 
-      if (split.length != 2)
+    try
+    {
+      if (version == WIRE_FORMAT_VERSION)
       {
-        throw new SessionCookieDecodingException(format("Invalid number of sections %i in cookie value %s.", split.length, data), data);
+        return decode(decrypt(encryptedData, 1, active, HEADER)).openedBy(KeyedCiphers.NO_KEY_ID, active);
+      }
+      else if (version == KEY_ID_WIRE_FORMAT_VERSION && encryptedData.length > 1)
+      {
+        int keyId = encryptedData[1] & 0xFF;
+        KeyedCiphers ciphers = keyRing.get(keyId);
+        if (ciphers == null)
+        {
+          throw new SessionCookieDecryptionException(null, active.algorithm, encryptedData, new InvalidKeyException(format("No symmetric encryption key with ID %d, it may have retired.", keyId)));
+        }
+        return decode(decrypt(encryptedData, 2, ciphers, ciphers.header)).openedBy(keyId, ciphers);
       }
       else
       {
-        return new EncodedEncryptedCookieValue(split[0], split[1]);
+        throw new SessionCookieDecodingException("Unsupported cookie value version.", encodedEncryptedValue);
       }
     }
-    catch (UnknownFormatConversionException e)
+    catch (SessionCookieDecryptionException | SessionCookieDecodingException e)
+    {
+      if (active.engine.isAuthenticated())
+      {
+        throw e;
+      }
+
+      /*
+       * A legacy cookie starts with a version byte about once in every 128 cookies.
+       */
+      try
+      {
+        return decodeLegacy(decrypt(encryptedData, 0, active, HEADER)).openedBy(KeyedCiphers.NO_KEY_ID, active);
+      }
+      catch (SessionCookieDecryptionException | SessionCookieDecodingException legacyException)
+      {
+        throw e;
+      }
+    }
+  }
+
+  static String encodeAndEncrypt(byte[] controlData, byte[] sessionData, byte[] key, String algorithm) throws GeneralSecurityException
+  {
+    return encodeAndEncrypt(controlData, sessionData, new KeyedCiphers(key, algorithm));
+  }
+
+  static String encodeAndEncrypt(byte[] controlData, byte[] sessionData, KeyedCiphers ciphers) throws GeneralSecurityException
+  {
+    byte[] plaintext = new byte[varintSize(controlData.length) + controlData.length + varintSize(sessionData.length) + sessionData.length];
+    int position = writeSection(plaintext, 0, controlData);
+    writeSection(plaintext, position, sessionData);
+
+    byte[] header = ciphers.header;
+    byte[] sealed = ciphers.engine.seal(header, plaintext);
+    byte[] encryptedData = new byte[header.length + sealed.length];
+    System.arraycopy(header, 0, encryptedData, 0, header.length);
+    System.arraycopy(sealed, 0, encryptedData, header.length, sealed.length);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(encryptedData);
+  }
+
+  final byte[] controlData;
+
+  final byte[] sessionData;
+
+  /**
+   * The key ID the cookie carried or {@link KeyedCiphers#NO_KEY_ID} if it had none.
+   */
+  int keyId = KeyedCiphers.NO_KEY_ID;
+
+  /**
+   * The key that opened the cookie, if it was opened from a {@link KeyRing}.
+   */
+  KeyedCiphers ciphers;
+
+  EncodedEncryptedCookieValue(byte[] controlData, byte[] sessionData)
+  {
+    this.controlData = controlData;
+    this.sessionData = sessionData;
+  }
+
+  private EncodedEncryptedCookieValue openedBy(int keyId, KeyedCiphers ciphers)
+  {
+    this.keyId = keyId;
+    this.ciphers = ciphers;
+    return this;
+  }
+
+  static byte[] decrypt(byte[] encryptedData, int offset, KeyedCiphers ciphers, byte[] header) throws GeneralSecurityException, SessionCookieDecryptionException
+  {
+    try
     {
-      throw new SessionCookieDecodingException(format("Invalid Base64 encoded cookie value."), encodedEncryptedValue, e);
+      return ciphers.engine.open(header, encryptedData, offset, encryptedData.length - offset);
     }
     catch (GeneralSecurityException e)
     {
-      throw new SessionCookieDecryptionException(key, algorithm, encodedEncryptedValue.getBytes(), e);
+      throw new SessionCookieDecryptionException(ciphers.key, ciphers.algorithm, encryptedData, e);
     }
   }
 
-  static String encodeAndEncrypt(String controlData, String sessionData, byte[] key, String algorithm) throws GeneralSecurityException
+  static EncodedEncryptedCookieValue decode(byte[] data) throws SessionCookieDecodingException
   {
-    Cipher cipher = Cipher.getInstance(algorithm);
-    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, algorithm));
-    byte[] data = (controlData + DELIMITER + sessionData).getBytes();
-    return Base64.getEncoder().encodeToString(cipher.doFinal(data));
+    return decode(data, 0, data.length);
   }
 
-  final String controlData;
+  static EncodedEncryptedCookieValue decode(byte[] data, int offset, int length) throws SessionCookieDecodingException
+  {
+    try
+    {
+      Reader reader = new Reader(data, offset, length);
+      byte[] controlData = reader.readBytes(reader.readVarint());
+      byte[] sessionData = reader.readBytes(reader.readVarint());
+      if (reader.remaining() != 0)
+      {
+        throw new SessionCookieDecodingException(format("Unexpected %d trailing bytes in cookie value.", reader.remaining()), Base64.getEncoder().encodeToString(data));
+      }
+      return new EncodedEncryptedCookieValue(controlData, sessionData);
+    }
+    catch (IOException e)
+    {
+      throw new SessionCookieDecodingException("Invalid cookie value sections.", Base64.getEncoder().encodeToString(data), e);
+    }
+  }
 
-  final String sessionData;
+  static EncodedEncryptedCookieValue decodeLegacy(byte[] data) throws SessionCookieDecodingException
+  {
+    String value = new String(data, ISO_8859_1);
+    int delimiterAt = value.indexOf(LEGACY_DELIMITER);
+    if (delimiterAt < 0 || value.indexOf(LEGACY_DELIMITER, delimiterAt + 1) >= 0)
+    {
+      throw new SessionCookieDecodingException(format("Invalid number of sections in cookie value %s.", value), value);
+    }
+
+    try
+    {
+      return new EncodedEncryptedCookieValue(Base64.getDecoder().decode(value.substring(0, delimiterAt)), Base64.getDecoder().decode(value.substring(delimiterAt + 1)));
+    }
+    catch (IllegalArgumentException e)
+    {
+      throw new SessionCookieDecodingException("Invalid Base64 encoded cookie value sections.", value, e);
+    }
+  }
 
-  public EncodedEncryptedCookieValue(String controlData, String sessionData)
+  static int writeSection(byte[] data, int position, byte[] section)
   {
-    this.controlData = controlData;
-    this.sessionData = sessionData;
+    int length = section.length;
+    while ((length & ~0x7F) != 0)
+    {
+      data[position++] = (byte) ((length & 0x7F) | 0x80);
+      length >>>= 7;
+    }
+    data[position++] = (byte) length;
+
+    System.arraycopy(section, 0, data, position, section.length);
+    return position + section.length;
   }
 
-  static final String DELIMITER = ",";
+  static boolean isUrlSafe(String encodedValue)
+  {
+    for (int i = 0; i < encodedValue.length(); i++)
+    {
+      char c = encodedValue.charAt(i);
+      if (c == '+' || c == '/')
+      {
+        return false;
+      }
+    }
+    return true;
+  }
 }
@@ -1,48 +1,360 @@
 package org.baswell.sessioncookie;
 
+import org.baswell.sessioncookie.SessionDataCodec.Reader;
+import org.baswell.sessioncookie.SessionDataCodec.Writer;
+
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static java.lang.String.format;
+import static org.baswell.sessioncookie.SessionDataCodec.FORMAT_VERSION;
+import static org.baswell.sessioncookie.SessionDataCodec.JAVA_SERIALIZATION_MAGIC;
 
-class EncodedMap extends HashMap<String, Object>
+/**
+ * Session attributes backed by the encoded bytes they were received in. Decoding only indexes the attribute names. Each value is deserialized from its own slice of
+ * the buffer the first time it's read with {@link #decode(String)} and attributes that are never read (or only hold immutable values) are copied back out as raw bytes
+ * by {@link #toBytes()}.
+ *
+ * <p>
+ * Since values are decoded on demand, {@link #put(String, Object)} and {@link #remove(Object)} only return the previous value if it was already decoded.
+ * </p>
+ */
+class EncodedMap extends AbstractMap<String, Object>
 {
+  private static final Object UNDECODED = new Object();
+
+  private final Map<String, Attribute> attributes;
+
+  /**
+   * The buffer this map was decoded from or null if the map was created empty or from a legacy Java serialized map.
+   */
+  private final byte[] encodedData;
+
+  /**
+   * Set when an attribute is added or removed after decoding.
+   */
+  private boolean modified;
+
   EncodedMap()
-  {}
+  {
+    attributes = new LinkedHashMap<>();
+    encodedData = null;
+  }
+
+  EncodedMap(String encodedData) throws ClassNotFoundException, SessionCookieDecodingException
+  {
+    this(Base64.getDecoder().decode(encodedData));
+  }
 
-  EncodedMap(String encodedData) throws ClassNotFoundException
+  EncodedMap(byte[] data) throws ClassNotFoundException, SessionCookieDecodingException
   {
     try
     {
-      ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(encodedData)));
-      HashMap<String, Object> map = (HashMap<String, Object>) ois.readObject();
-      ois.close();
+      if (data.length > 0 && data[0] == JAVA_SERIALIZATION_MAGIC)
+      {
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+        HashMap<String, Object> map = (HashMap<String, Object>) ois.readObject();
+        ois.close();
 
-      putAll(map);
+        attributes = new LinkedHashMap<>(map.size() * 4 / 3 + 1);
+        encodedData = null;
+        for (Map.Entry<String, Object> entry : map.entrySet())
+        {
+          attributes.put(entry.getKey(), new Attribute(entry.getValue()));
+        }
+      }
+      else
+      {
+        Reader reader = new Reader(data, 0, data.length);
+        byte version = reader.readByte();
+        if (version != FORMAT_VERSION)
+        {
+          throw new StreamCorruptedException(format("Unsupported session data format version %d.", version));
+        }
+
+        int count = reader.readVarint();
+        attributes = new LinkedHashMap<>(Math.min(count, reader.remaining()) * 4 / 3 + 1);
+        encodedData = data;
+        for (int i = 0; i < count; i++)
+        {
+          int entryOffset = reader.position;
+          String name = reader.readString();
+          int valueLength = reader.readVarint();
+          int valueOffset = reader.position;
+          reader.slice(valueLength);
+          attributes.put(name, new Attribute(entryOffset, reader.position - entryOffset, valueOffset, valueLength));
+        }
+
+        if (reader.remaining() != 0)
+        {
+          throw new StreamCorruptedException(format("Unexpected %d trailing bytes in session data.", reader.remaining()));
+        }
+      }
     }
-    catch (IOException e)
+    catch (IOException | ClassCastException e)
     {
-      throw new RuntimeException(e);
+      throw new SessionCookieDecodingException("Invalid session data.", Base64.getEncoder().encodeToString(data), e);
     }
+  }
 
+  /**
+   * @return The value of the given attribute, deserializing it from its slice of the encoded data if this is the first time it's been read.
+   */
+  Object decode(String name) throws ClassNotFoundException, SessionCookieDecodingException
+  {
+    Attribute attribute = attributes.get(name);
+    return attribute == null ? null : attribute.value(name);
   }
 
-  public String encode()
+  @Override
+  public Object get(Object name)
   {
     try
     {
-      ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
-      ObjectOutputStream oos = new ObjectOutputStream(bytesOut);
-      oos.writeObject(this);
-      oos.close();
-      return Base64.getEncoder().encodeToString(bytesOut.toByteArray());
+      return decode((String) name);
+    }
+    catch (ClassNotFoundException | SessionCookieDecodingException e)
+    {
+      throw new IllegalStateException(format("Unable to decode session attribute %s.", name), e);
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object name)
+  {
+    return attributes.containsKey(name);
+  }
+
+  @Override
+  public int size()
+  {
+    return attributes.size();
+  }
+
+  @Override
+  public Object put(String name, Object value)
+  {
+    modified = true;
+    Attribute previous = attributes.put(name, new Attribute(value));
+    return previous == null ? null : previous.decodedValue();
+  }
+
+  @Override
+  public Object remove(Object name)
+  {
+    Attribute previous = attributes.remove(name);
+    if (previous == null)
+    {
+      return null;
+    }
+    else
+    {
+      modified = true;
+      return previous.decodedValue();
+    }
+  }
+
+  @Override
+  public void clear()
+  {
+    modified = true;
+    attributes.clear();
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet()
+  {
+    return new AbstractSet<Entry<String, Object>>()
+    {
+      @Override
+      public Iterator<Entry<String, Object>> iterator()
+      {
+        final Iterator<Entry<String, Attribute>> iterator = attributes.entrySet().iterator();
+        return new Iterator<Entry<String, Object>>()
+        {
+          @Override
+          public boolean hasNext()
+          {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public Entry<String, Object> next()
+          {
+            final Entry<String, Attribute> entry = iterator.next();
+            return new SimpleEntry<String, Object>(entry.getKey(), null)
+            {
+              @Override
+              public Object getValue()
+              {
+                return get(entry.getKey());
+              }
+
+              @Override
+              public Object setValue(Object value)
+              {
+                return put(entry.getKey(), value);
+              }
+            };
+          }
+
+          @Override
+          public void remove()
+          {
+            modified = true;
+            iterator.remove();
+          }
+        };
+      }
+
+      @Override
+      public int size()
+      {
+        return attributes.size();
+      }
+    };
+  }
+
+  public String encode()
+  {
+    return Base64.getEncoder().encodeToString(toBytes());
+  }
+
+  /**
+   * @return The encoded attributes. If no attribute was added, removed or decoded into a mutable value the original encoded data is returned as is.
+   */
+  byte[] toBytes()
+  {
+    if (encodedData != null && !modified)
+    {
+      boolean unchanged = true;
+      for (Attribute attribute : attributes.values())
+      {
+        if (!attribute.canCopyRaw())
+        {
+          unchanged = false;
+          break;
+        }
+      }
+
+      if (unchanged)
+      {
+        return encodedData;
+      }
     }
-    catch (IOException e)
+
+    Writer writer = new Writer(encodedData == null ? 64 : encodedData.length + 16);
+    writer.writeByte(FORMAT_VERSION);
+    writer.writeVarint(attributes.size());
+    for (Map.Entry<String, Attribute> entry : attributes.entrySet())
     {
-      throw new RuntimeException(e);
+      Attribute attribute = entry.getValue();
+      if (attribute.canCopyRaw())
+      {
+        writer.writeBytes(encodedData, attribute.entryOffset, attribute.entryLength);
+      }
+      else
+      {
+        writer.writeString(entry.getKey());
+        int lengthAt = writer.reserveLength();
+        SessionDataCodec.writeValue(writer, attribute.value);
+        writer.fillLength(lengthAt);
+      }
     }
+    return writer.toByteArray();
+  }
+
+  /**
+   * A single attribute. Either a slice of {@link #encodedData} that's decoded on first access or a value set on this map.
+   */
+  private class Attribute
+  {
+    final int entryOffset;
+
+    final int entryLength;
+
+    final int valueOffset;
+
+    final int valueLength;
+
+    volatile Object value;
+
+    Attribute(int entryOffset, int entryLength, int valueOffset, int valueLength)
+    {
+      this.entryOffset = entryOffset;
+      this.entryLength = entryLength;
+      this.valueOffset = valueOffset;
+      this.valueLength = valueLength;
+      value = UNDECODED;
+    }
+
+    Attribute(Object value)
+    {
+      entryOffset = entryLength = valueOffset = valueLength = -1;
+      this.value = value;
+    }
+
+    Object value(String name) throws ClassNotFoundException, SessionCookieDecodingException
+    {
+      Object value = this.value;
+      if (value == UNDECODED)
+      {
+        try
+        {
+          Reader reader = new Reader(encodedData, valueOffset, valueLength);
+          value = SessionDataCodec.readValue(reader);
+          if (reader.remaining() != 0)
+          {
+            throw new StreamCorruptedException(format("Unexpected %d trailing bytes in session attribute %s.", reader.remaining(), name));
+          }
+        }
+        catch (IOException e)
+        {
+          byte[] valueData = new byte[valueLength];
+          System.arraycopy(encodedData, valueOffset, valueData, 0, valueLength);
+          throw new SessionCookieDecodingException(format("Invalid session attribute %s.", name), Base64.getEncoder().encodeToString(valueData), e);
+        }
+        this.value = value;
+      }
+      return value;
+    }
+
+    Object decodedValue()
+    {
+      Object value = this.value;
+      return value == UNDECODED ? null : value;
+    }
+
+    /**
+     * @return true if this attribute can be written out as the bytes it was received in. That's the case if it was never decoded or was decoded into a value that
+     * can't have been changed in place.
+     */
+    boolean canCopyRaw()
+    {
+      if (entryOffset < 0)
+      {
+        return false;
+      }
+
+      Object value = this.value;
+      return value == UNDECODED || value == null || isImmutable(value.getClass());
+    }
+  }
+
+  static boolean isImmutable(Class<?> type)
+  {
+    return type == String.class || type == Boolean.class || type == Integer.class || type == Long.class || type == Double.class || type == Float.class
+        || type == Short.class || type == Byte.class || type == Character.class || type == Instant.class;
   }
 }
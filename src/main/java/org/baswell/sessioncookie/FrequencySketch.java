@@ -0,0 +1,121 @@
+package org.baswell.sessioncookie;
+
+/**
+ * A count-min sketch of 4-bit counters used by {@link SessionCache} to estimate how often a session has been accessed recently. Counters are
+ * packed sixteen to a long and each key is counted in four of them, one per hash function. When the number of recorded accesses reaches ten times the table size all
+ * counters are halved so the estimates favor recent activity.
+ *
+ * This class is not thread safe. Callers must hold the lock of the cache that owns it.
+ */
+class FrequencySketch
+{
+  private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  private long[] table = new long[0];
+
+  private int tableMask;
+
+  private int sampleSize;
+
+  private int size;
+
+  /**
+   * Grows the sketch so it can track roughly <code>maximumSize</code> keys. Existing counts are discarded when the table grows.
+   */
+  void ensureCapacity(int maximumSize)
+  {
+    int capacity = Math.max(8, ceilingPowerOfTwo(Math.min(Math.max(maximumSize, 1), 1 << 30)));
+    if (table.length < capacity)
+    {
+      table = new long[capacity];
+      tableMask = capacity - 1;
+      sampleSize = 10 * capacity;
+      size = 0;
+    }
+  }
+
+  /**
+   * @return The estimated number of recent accesses of the given key, at most 15.
+   */
+  int frequency(int hashCode)
+  {
+    int hash = spread(hashCode);
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++)
+    {
+      int offset = (start + i) << 2;
+      int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Records an access of the given key.
+   */
+  void increment(int hashCode)
+  {
+    int hash = spread(hashCode);
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++)
+    {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+
+    if (added && ++size >= sampleSize)
+    {
+      reset();
+    }
+  }
+
+  private boolean incrementAt(int index, int counter)
+  {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    if ((table[index] & mask) != mask)
+    {
+      table[index] += 1L << offset;
+      return true;
+    }
+    else
+    {
+      return false;
+    }
+  }
+
+  private void reset()
+  {
+    int odd = 0;
+    for (int i = 0; i < table.length; i++)
+    {
+      odd += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    size = (size >>> 1) - (odd >>> 2);
+  }
+
+  private int indexOf(int hash, int i)
+  {
+    long index = (hash + SEEDS[i]) * SEEDS[i];
+    index += index >>> 32;
+    return ((int) index) & tableMask;
+  }
+
+  private static int spread(int hashCode)
+  {
+    int hash = ((hashCode >>> 16) ^ hashCode) * 0x45d9f3b;
+    hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+    return (hash >>> 16) ^ hash;
+  }
+
+  private static int ceilingPowerOfTwo(int value)
+  {
+    return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+  }
+}
@@ -0,0 +1,129 @@
+package org.baswell.sessioncookie;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+/**
+ * The keys that can open session cookies, indexed by the key ID each cookie carries so the right key is found with one array lookup. New cookies are always
+ * sealed with the {@link #active} key. When the active key is replaced, the key it replaced stays in the ring for {@link SessionCookieParameters#getKeyRetirementSeconds()}
+ * so sessions sealed with it keep working, then it retires and its cookies are no longer accepted. Keys from {@link SessionCookieParameters#getPreviousSymmetricEncryptionKeys()}
+ * stay in the ring until they are removed from the parameters.
+ */
+class KeyRing
+{
+  final KeyedCiphers active;
+
+  private final KeyedCiphers[] keys = new KeyedCiphers[KeyedCiphers.MAX_KEY_ID + 1];
+
+  /**
+   * When each key retires in milliseconds since the epoch.
+   */
+  private final long[] retireAt = new long[KeyedCiphers.MAX_KEY_ID + 1];
+
+  /**
+   * True for the keys that came from {@link SessionCookieParameters#getPreviousSymmetricEncryptionKeys()}. These are read again for each ring rather than carried
+   * forward so a key removed from the parameters can no longer open cookies.
+   */
+  private final boolean[] listed = new boolean[KeyedCiphers.MAX_KEY_ID + 1];
+
+  /**
+   * A ring of just the given key.
+   */
+  KeyRing(KeyedCiphers active)
+  {
+    this.active = active;
+    if (active.keyId != KeyedCiphers.NO_KEY_ID)
+    {
+      keys[active.keyId] = active;
+      retireAt[active.keyId] = Long.MAX_VALUE;
+    }
+  }
+
+  /**
+   * @param parameters The parameters the active key was read from
+   * @param active The active key
+   * @param previous The ring this replaces or null. Its replaced active keys that haven't retired are kept, along with their engines. Its previous keys are
+   *                 only kept if they're still in the parameters.
+   * @throws GeneralSecurityException If an engine cannot be created for a previous key.
+   * @throws IllegalArgumentException If a previous key's ID is invalid or the same as the active key's ID.
+   */
+  KeyRing(SessionCookieParameters parameters, KeyedCiphers active, KeyRing previous) throws GeneralSecurityException, IllegalArgumentException
+  {
+    this(active);
+    long now = System.currentTimeMillis();
+
+    if (previous != null)
+    {
+      for (int keyId = 0; keyId < keys.length; keyId++)
+      {
+        if (keyId != active.keyId && previous.keys[keyId] != null && !previous.listed[keyId] && previous.retireAt[keyId] > now)
+        {
+          keys[keyId] = previous.keys[keyId];
+          retireAt[keyId] = previous.retireAt[keyId];
+        }
+      }
+
+      KeyedCiphers replaced = previous.active;
+      if (replaced != active && replaced.keyId != KeyedCiphers.NO_KEY_ID && replaced.keyId != active.keyId)
+      {
+        int retirementSeconds = parameters.getKeyRetirementSeconds();
+        keys[replaced.keyId] = replaced;
+        retireAt[replaced.keyId] = retirementSeconds < 0 ? Long.MAX_VALUE : now + retirementSeconds * 1000L;
+      }
+    }
+
+    Map<Integer, byte[]> previousKeys = parameters.getPreviousSymmetricEncryptionKeys();
+    if (previousKeys != null)
+    {
+      for (Map.Entry<Integer, byte[]> entry : previousKeys.entrySet())
+      {
+        int keyId = entry.getKey();
+        byte[] key = entry.getValue();
+        if (keyId < 0 || keyId > KeyedCiphers.MAX_KEY_ID || keyId == active.keyId)
+        {
+          throw new IllegalArgumentException("Previous symmetric encryption key ID " + keyId + " must be from 0 to " + KeyedCiphers.MAX_KEY_ID + " and not the active key ID.");
+        }
+
+        KeyedCiphers existing = keys[keyId] == null && previous != null ? previous.keys[keyId] : keys[keyId];
+        keys[keyId] = existing != null && existing.matches(key, active.algorithm, keyId) ? existing : new KeyedCiphers(key, active.algorithm, keyId, parameters.createCryptoEngine(key));
+        retireAt[keyId] = Long.MAX_VALUE;
+        listed[keyId] = true;
+      }
+    }
+  }
+
+  /**
+   * @return The key with the given ID or null if there isn't one or it has retired.
+   */
+  KeyedCiphers get(int keyId)
+  {
+    KeyedCiphers key = keys[keyId];
+    return key != null && (retireAt[keyId] == Long.MAX_VALUE || System.currentTimeMillis() < retireAt[keyId]) ? key : null;
+  }
+
+  /**
+   * @param keyId The key ID a cookie carried or {@link KeyedCiphers#NO_KEY_ID} if it had none
+   * @param ciphers The key that opened or sealed the cookie
+   * @return true if this ring would open the cookie with the same key, false if that key has been replaced, retired or removed.
+   */
+  boolean opens(int keyId, KeyedCiphers ciphers)
+  {
+    return ciphers != null && ciphers == (keyId == KeyedCiphers.NO_KEY_ID ? active : get(keyId));
+  }
+
+  /**
+   * @return The number of keys in the ring that haven't retired.
+   */
+  int size()
+  {
+    int size = 0;
+    for (int keyId = 0; keyId < keys.length; keyId++)
+    {
+      if (get(keyId) != null)
+      {
+        size++;
+      }
+    }
+    return size;
+  }
+}
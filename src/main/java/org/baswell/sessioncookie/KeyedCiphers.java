@@ -0,0 +1,67 @@
+package org.baswell.sessioncookie;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * The {@link SessionCookieCryptoEngine} for a single algorithm and key. Engines keep initialized ciphers for reuse across requests so the cost of sealing or
+ * opening a session cookie is only the block work. Each {@link ParametersSnapshot} holds the engine for its key. A snapshot with the same algorithm and key as
+ * the one before it keeps the same engine, otherwise the old engine is dropped along with the old snapshot, or kept in the {@link KeyRing} until it retires.
+ */
+class KeyedCiphers
+{
+  /**
+   * Cookies sealed with a key that has no ID.
+   */
+  static final int NO_KEY_ID = -1;
+
+  static final int MAX_KEY_ID = 255;
+
+  final byte[] key;
+
+  final String algorithm;
+
+  /**
+   * The ID sent with cookies sealed by this key, from 0 to {@link #MAX_KEY_ID}, or {@link #NO_KEY_ID}.
+   */
+  final int keyId;
+
+  /**
+   * The bytes in front of the sealed bytes of each cookie, which are also its associated data.
+   */
+  final byte[] header;
+
+  final SessionCookieCryptoEngine engine;
+
+  /**
+   * Uses the built-in engine for the algorithm with no key ID.
+   *
+   * @throws GeneralSecurityException If the algorithm isn't supported or the key isn't valid for it.
+   */
+  KeyedCiphers(byte[] key, String algorithm) throws GeneralSecurityException
+  {
+    this(key, algorithm, NO_KEY_ID, SessionCookieCryptoEngine.forAlgorithm(algorithm, key));
+  }
+
+  /**
+   * @throws IllegalArgumentException If the key ID isn't {@link #NO_KEY_ID} or from 0 to {@link #MAX_KEY_ID}.
+   */
+  KeyedCiphers(byte[] key, String algorithm, int keyId, SessionCookieCryptoEngine engine) throws IllegalArgumentException
+  {
+    if (keyId < NO_KEY_ID || keyId > MAX_KEY_ID)
+    {
+      throw new IllegalArgumentException("Invalid symmetric encryption key ID " + keyId + ". Must be from 0 to " + MAX_KEY_ID + ".");
+    }
+
+    this.key = key.clone();
+    this.algorithm = algorithm;
+    this.keyId = keyId;
+    this.engine = engine;
+    header = keyId == NO_KEY_ID ? new byte[] {EncodedEncryptedCookieValue.WIRE_FORMAT_VERSION} : new byte[] {EncodedEncryptedCookieValue.KEY_ID_WIRE_FORMAT_VERSION, (byte) keyId};
+  }
+
+  boolean matches(byte[] key, String algorithm, int keyId)
+  {
+    return this.keyId == keyId && this.algorithm.equals(algorithm) && Arrays.equals(this.key, key);
+  }
+}
@@ -0,0 +1,98 @@
+package org.baswell.sessioncookie;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SignatureException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Only signs session cookies, for sessions that don't hold anything that must be kept from the client. The sealed bytes are the plaintext followed by the MAC
+ * of the associated data and plaintext. Initialized {@link Mac} objects are kept for reuse across requests.
+ */
+class MacCryptoEngine implements SessionCookieCryptoEngine
+{
+  /**
+   * @return true if the algorithm is a MAC (its name starts with <code>Hmac</code>).
+   */
+  static boolean isMac(String algorithm)
+  {
+    return algorithm.regionMatches(true, 0, "Hmac", 0, 4);
+  }
+
+  private final String algorithm;
+
+  private final SecretKeySpec keySpec;
+
+  private final int macLength;
+
+  private final Queue<Mac> macs = new ConcurrentLinkedQueue<>();
+
+  MacCryptoEngine(String algorithm, byte[] key) throws GeneralSecurityException
+  {
+    this.algorithm = algorithm;
+    keySpec = new SecretKeySpec(key, algorithm);
+    Mac mac = borrow();
+    macLength = mac.getMacLength();
+    macs.offer(mac);
+  }
+
+  @Override
+  public byte[] seal(byte[] associatedData, byte[] plaintext) throws GeneralSecurityException
+  {
+    byte[] sealed = new byte[plaintext.length + macLength];
+    System.arraycopy(plaintext, 0, sealed, 0, plaintext.length);
+
+    Mac mac = borrow();
+    mac.update(associatedData);
+    mac.update(plaintext);
+    mac.doFinal(sealed, plaintext.length);
+    macs.offer(mac);
+    return sealed;
+  }
+
+  /**
+   * The MAC is compared in constant time.
+   */
+  @Override
+  public byte[] open(byte[] associatedData, byte[] sealed, int offset, int length) throws GeneralSecurityException
+  {
+    int plaintextLength = length - macLength;
+    if (plaintextLength < 0)
+    {
+      throw new SignatureException("Signed cookie value is too short.");
+    }
+
+    Mac mac = borrow();
+    mac.update(associatedData);
+    mac.update(sealed, offset, plaintextLength);
+    byte[] expected = mac.doFinal();
+    macs.offer(mac);
+
+    int difference = 0;
+    for (int i = 0; i < macLength; i++)
+    {
+      difference |= expected[i] ^ sealed[offset + plaintextLength + i];
+    }
+    if (difference != 0)
+    {
+      throw new SignatureException("Invalid cookie value signature.");
+    }
+
+    byte[] plaintext = new byte[plaintextLength];
+    System.arraycopy(sealed, offset, plaintext, 0, plaintextLength);
+    return plaintext;
+  }
+
+  private Mac borrow() throws GeneralSecurityException
+  {
+    Mac mac = macs.poll();
+    if (mac == null)
+    {
+      mac = Mac.getInstance(algorithm);
+      mac.init(keySpec);
+    }
+    return mac;
+  }
+}
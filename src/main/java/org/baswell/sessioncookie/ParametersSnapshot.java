@@ -0,0 +1,99 @@
+package org.baswell.sessioncookie;
+
+import java.security.GeneralSecurityException;
+
+import static org.baswell.sessioncookie.SharedMethods.hasContent;
+
+/**
+ * An immutable copy of {@link SessionCookieParameters} so request threads read final fields instead of calling the parameters. Everything derived from the
+ * parameters, like the ciphers for the encryption key, is computed once when the snapshot is taken.
+ *
+ * @see CurrentParameters
+ */
+class ParametersSnapshot
+{
+  final int sessionTimeoutMinutes;
+
+  final int inactivityTimeoutSeconds;
+
+  final int touchGranularitySeconds;
+
+  final int maxInMemorySessions;
+
+  final boolean purgeSessionCacheWithBackgroundThread;
+
+  final boolean purgeSessionCacheWithVirtualThread;
+
+  final int minimumSecondsBetweenSessionCachePurges;
+
+  /**
+   * The crypto engine for the encryption algorithm and active key.
+   */
+  final KeyedCiphers ciphers;
+
+  /**
+   * The active key and the keys that still open cookies sealed before it.
+   */
+  final KeyRing keyRing;
+
+  final String cookieName;
+
+  /**
+   * The cookie domain or null if the cookie shouldn't have one.
+   */
+  final String cookieDomain;
+
+  /**
+   * Writes the session cookie with its name and attributes rendered once.
+   */
+  final SetCookieHeader setCookieHeader;
+
+  final int cookieSizeWarning;
+
+  final int parametersReloadSeconds;
+
+  /**
+   * True if {@link #maxInMemorySessions} is positive.
+   */
+  final boolean useCache;
+
+  /**
+   * True if sessions have an inactivity timeout so their cookies are reissued to update the last accessed time.
+   */
+  final boolean touchSessions;
+
+  /**
+   * @param parameters The parameters to copy
+   * @param previous The snapshot this replaces or null. Its ciphers are kept if the algorithm and key haven't changed, and its key ring's keys until they retire.
+   * @throws GeneralSecurityException If the encryption key cannot be retrieved.
+   * @throws IllegalArgumentException If a key ID, the cookie name or the cookie attributes are invalid.
+   */
+  ParametersSnapshot(SessionCookieParameters parameters, ParametersSnapshot previous) throws GeneralSecurityException, IllegalArgumentException
+  {
+    sessionTimeoutMinutes = parameters.getSessionTimeoutMinutes();
+    inactivityTimeoutSeconds = parameters.getInactivityTimeoutSeconds();
+    touchGranularitySeconds = parameters.getTouchGranularitySeconds();
+    maxInMemorySessions = parameters.getMaxInMemorySessions();
+    purgeSessionCacheWithBackgroundThread = parameters.getPurgeSessionCacheWithBackgroundThread();
+    purgeSessionCacheWithVirtualThread = parameters.getPurgeSessionCacheWithVirtualThread();
+    minimumSecondsBetweenSessionCachePurges = parameters.getMinimumSecondsBetweenSessionCachePurges();
+
+    byte[] key = parameters.getSymmetricEncryptionKey();
+    String algorithm = parameters.getSymmetricEncryptionAlgorithm();
+    int keyId = Math.max(parameters.getSymmetricEncryptionKeyId(), KeyedCiphers.NO_KEY_ID);
+    ciphers = previous != null && previous.ciphers.matches(key, algorithm, keyId) ? previous.ciphers : new KeyedCiphers(key, algorithm, keyId, parameters.createCryptoEngine(key));
+    keyRing = new KeyRing(parameters, ciphers, previous == null ? null : previous.keyRing);
+
+    cookieName = parameters.getCookieName();
+    String cookieDomain = parameters.getCookieDomain();
+    this.cookieDomain = hasContent(cookieDomain) ? cookieDomain : null;
+    String cookieSameSite = parameters.getCookieSameSite();
+    setCookieHeader = new SetCookieHeader(cookieName, this.cookieDomain, SetCookieHeader.parsePaths(parameters.getCookiePath()), parameters.getCookieSecure(),
+        parameters.getCookieHttpOnly(), hasContent(cookieSameSite) ? cookieSameSite : null);
+    cookieSizeWarning = parameters.getCookieSizeWarning();
+    parametersReloadSeconds = parameters.getParametersReloadSeconds();
+
+    useCache = maxInMemorySessions > 0;
+    touchSessions = inactivityTimeoutSeconds > 0;
+  }
+}
@@ -0,0 +1,249 @@
+package org.baswell.sessioncookie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches request paths against a list of regular expressions, like the <code>OnlyPaths</code> and <code>ExcludedPaths</code> filter parameters, as if each
+ * pattern were tried in turn with {@link java.util.regex.Matcher#matches()}. Most path patterns are a literal path, a literal prefix followed by <code>.*</code>
+ * or <code>.*</code> followed by a literal suffix, so these are pulled out of the list and matched with two tries without running a regular expression.
+ * The remaining patterns are combined into a single alternation so a path is only scanned once however many patterns there are. As in a regular expression,
+ * the <code>.*</code> of a trie pattern doesn't match line terminators.
+ */
+class PathMatcher
+{
+  private static final String METACHARACTERS = "\\[](){}.*+?^$|";
+
+  private final TrieNode prefixes = new TrieNode();
+
+  private final TrieNode suffixes = new TrieNode();
+
+  private final Pattern combined;
+
+  /**
+   * Patterns with back references can't be combined since their group numbers would change, and patterns with named groups can't be combined since two of
+   * them may use the same name.
+   */
+  private final List<Pattern> separate = new ArrayList<>();
+
+  /**
+   * @param patterns The regular expressions, each of which must match a whole path.
+   * @throws PatternSyntaxException If any of the patterns are invalid.
+   */
+  PathMatcher(List<String> patterns) throws PatternSyntaxException
+  {
+    List<String> combinable = new ArrayList<>();
+    for (String pattern : patterns)
+    {
+      Pattern.compile(pattern);
+
+      String literal;
+      if ((literal = literal(pattern, 0, pattern.length())) != null)
+      {
+        prefixes.add(literal, false).exact = true;
+      }
+      else if (pattern.endsWith(".*") && (literal = literal(pattern, 0, pattern.length() - 2)) != null)
+      {
+        prefixes.add(literal, false).prefix = true;
+      }
+      else if (pattern.startsWith(".*") && (literal = literal(pattern, 2, pattern.length())) != null)
+      {
+        suffixes.add(literal, true).prefix = true;
+      }
+      else if (pattern.matches(".*(\\\\(\\d|k<)|\\(\\?<[a-zA-Z]).*"))
+      {
+        separate.add(Pattern.compile(pattern));
+      }
+      else
+      {
+        combinable.add(pattern);
+      }
+    }
+
+    Pattern combined = null;
+    if (!combinable.isEmpty())
+    {
+      StringBuilder alternation = new StringBuilder();
+      for (String pattern : combinable)
+      {
+        if (alternation.length() > 0)
+        {
+          alternation.append('|');
+        }
+        alternation.append("(?:").append(pattern).append(')');
+      }
+
+      try
+      {
+        combined = Pattern.compile(alternation.toString());
+      }
+      catch (PatternSyntaxException e)
+      {
+        /*
+         * Each pattern compiles on its own, so they're matched one at a time if they can't be combined.
+         */
+        for (String pattern : combinable)
+        {
+          separate.add(Pattern.compile(pattern));
+        }
+      }
+    }
+    this.combined = combined;
+  }
+
+  /**
+   * @return true if any pattern matches the whole path.
+   */
+  boolean matches(String path)
+  {
+    return matches(path, 0);
+  }
+
+  /**
+   * @return true if any pattern matches the path starting at the given offset, as if the path had been cut with {@link String#substring(int)}.
+   */
+  boolean matches(String path, int offset)
+  {
+    TrieNode node = prefixes;
+    for (int i = offset; node != null; i++)
+    {
+      if ((node.prefix && !hasLineTerminator(path, i, path.length())) || (node.exact && i == path.length()))
+      {
+        return true;
+      }
+      node = i < path.length() ? node.child(path.charAt(i)) : null;
+    }
+
+    node = suffixes;
+    for (int i = path.length() - 1; node != null; i--)
+    {
+      if (node.prefix && !hasLineTerminator(path, offset, i + 1))
+      {
+        return true;
+      }
+      node = i >= offset ? node.child(path.charAt(i)) : null;
+    }
+
+    if (combined != null && combined.matcher(path).region(offset, path.length()).matches())
+    {
+      return true;
+    }
+
+    for (Pattern pattern : separate)
+    {
+      if (pattern.matcher(path).region(offset, path.length()).matches())
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * @return true if the path between start and end has a character that <code>.</code> doesn't match.
+   */
+  private static boolean hasLineTerminator(String path, int start, int end)
+  {
+    for (int i = start; i < end; i++)
+    {
+      char c = path.charAt(i);
+      if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The text the pattern between start and end matches if it only matches literal text, otherwise null.
+   */
+  static String literal(String pattern, int start, int end)
+  {
+    StringBuilder literal = new StringBuilder(end - start);
+    for (int i = start; i < end; i++)
+    {
+      char c = pattern.charAt(i);
+      if (c == '\\')
+      {
+        if (i + 1 >= end || Character.isLetterOrDigit(pattern.charAt(i + 1)))
+        {
+          return null;
+        }
+        literal.append(pattern.charAt(++i));
+      }
+      else if (METACHARACTERS.indexOf(c) >= 0)
+      {
+        return null;
+      }
+      else
+      {
+        literal.append(c);
+      }
+    }
+    return literal.toString();
+  }
+
+  /**
+   * A character trie. Suffixes are added reversed so they can be walked from the end of the path.
+   */
+  private static class TrieNode
+  {
+    char[] characters = new char[0];
+
+    TrieNode[] children = new TrieNode[0];
+
+    /**
+     * A pattern matches any path that reaches this node, whatever follows.
+     */
+    boolean prefix;
+
+    /**
+     * A pattern matches a path that ends at this node.
+     */
+    boolean exact;
+
+    /**
+     * @return The node at the end of the literal.
+     */
+    TrieNode add(String literal, boolean reversed)
+    {
+      TrieNode node = this;
+      for (int i = 0; i < literal.length(); i++)
+      {
+        char c = literal.charAt(reversed ? literal.length() - 1 - i : i);
+        TrieNode child = node.child(c);
+        if (child == null)
+        {
+          child = new TrieNode();
+          int length = node.characters.length;
+          char[] characters = new char[length + 1];
+          TrieNode[] children = new TrieNode[length + 1];
+          System.arraycopy(node.characters, 0, characters, 0, length);
+          System.arraycopy(node.children, 0, children, 0, length);
+          characters[length] = c;
+          children[length] = child;
+          node.characters = characters;
+          node.children = children;
+        }
+        node = child;
+      }
+      return node;
+    }
+
+    TrieNode child(char c)
+    {
+      for (int i = 0; i < characters.length; i++)
+      {
+        if (characters[i] == c)
+        {
+          return children[i];
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package org.baswell.sessioncookie;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which requests {@link SessionCookieFilter} sets up with session cookies from its <code>OnlyPaths</code> and <code>ExcludedPaths</code> parameters.
+ * Applications request the same few URIs over and over so each decision is cached by request URI. The cache is bounded by {@link #MAX_CACHED_DECISIONS} and
+ * simply starts over when it fills, so URIs with unique parts like IDs can't grow it without limit.
+ */
+class RequestPathMatcher
+{
+  static final int MAX_CACHED_DECISIONS = 4096;
+
+  private final PathMatcher onlyPaths;
+
+  private final PathMatcher excludedPaths;
+
+  private final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+
+  /**
+   * @param onlyPaths Only paths matching these are wrapped or null to wrap every path not excluded
+   * @param excludedPaths Paths matching these are not wrapped or null to exclude none
+   */
+  RequestPathMatcher(PathMatcher onlyPaths, PathMatcher excludedPaths)
+  {
+    this.onlyPaths = onlyPaths;
+    this.excludedPaths = excludedPaths;
+  }
+
+  /**
+   * @return true if the request should be set up with session cookies.
+   */
+  boolean wrap(String contextPath, String requestURI)
+  {
+    if (onlyPaths == null && excludedPaths == null)
+    {
+      return true;
+    }
+
+    Boolean wrap = decisions.get(requestURI);
+    if (wrap == null)
+    {
+      wrap = SessionCookieFilter.wrapRequest(contextPath, requestURI, onlyPaths, excludedPaths);
+      if (decisions.size() >= MAX_CACHED_DECISIONS)
+      {
+        decisions.clear();
+      }
+      decisions.put(requestURI, wrap);
+    }
+    return wrap;
+  }
+
+  int cachedDecisions()
+  {
+    return decisions.size();
+  }
+}
@@ -10,6 +10,10 @@ class RequestWrapper extends HttpServletRequestWrapper
 
   private final CacheManager cacheManager;
 
+  private String sessionCookieName;
+
+  private String sessionCookieValue;
+
   RequestWrapper(HttpServletRequest request, CacheManager cacheManager)
   {
     super(request);
@@ -25,4 +29,27 @@ class RequestWrapper extends HttpServletRequestWrapper
     }
     return cookieBackedSession;
   }
+
+  /**
+   * The request's cookies are only scanned once for the session cookie, the result is kept for the rest of the request.
+   *
+   * @return The value of the session cookie the client sent or null if it didn't send one.
+   */
+  String getSessionCookieValue(String cookieName)
+  {
+    if (!cookieName.equals(sessionCookieName))
+    {
+      sessionCookieValue = CookieHeaderScanner.findValue(this, cookieName);
+      sessionCookieName = cookieName;
+    }
+    return sessionCookieValue;
+  }
+
+  /**
+   * @return The value of the session cookie the given request was sent with or null if it doesn't have one.
+   */
+  static String getSessionCookieValue(HttpServletRequest request, String cookieName)
+  {
+    return request instanceof RequestWrapper ? ((RequestWrapper) request).getSessionCookieValue(cookieName) : CookieHeaderScanner.findValue(request, cookieName);
+  }
 }
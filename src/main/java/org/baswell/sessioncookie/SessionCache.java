@@ -0,0 +1,679 @@
+package org.baswell.sessioncookie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The in-memory session cache, bounded by {@link SessionCookieParameters#getMaxInMemorySessions()} with a W-TinyLFU eviction policy. New sessions
+ * enter a small LRU admission window. Sessions pushed out of the window compete for a place in the main segmented LRU against its least recently used
+ * session, and whichever has been accessed less often according to a {@link FrequencySketch} is evicted. A burst of sessions that are only seen
+ * once, like a crawler that doesn't send cookies back, passes through the window without displacing the sessions of regular users.
+ *
+ * Every operation is constant time and eviction happens on insert, so the cache never holds more than the maximum. Each session is also scheduled on a
+ * {@link TimerWheel} at the time it expires so purging expired sessions only visits the sessions that have expired.
+ *
+ * The cache is split by session ID hash into independent segments, each with its own share of the maximum, lock, sketch and timer wheel, so
+ * request threads working on different sessions rarely contend. Lookups never wait on a lock. If the segment is busy the access just isn't
+ * counted towards keeping the session cached. The number of segments follows the maximum, so when a change to the maximum calls for a different number
+ * the segments are rebuilt and the cached sessions moved into them.
+ */
+class SessionCache
+{
+  /**
+   * Notified of sessions that were evicted or expired from the cache.
+   */
+  interface RemovalListener
+  {
+    void onRemoval(CookieBackedSession session, boolean expired);
+  }
+
+  /**
+   * The smallest share of the maximum that a segment is given. Smaller caches use fewer segments.
+   */
+  static final int MINIMUM_SEGMENT_SIZE = 64;
+
+  private static final int WINDOW = 0;
+
+  private static final int PROBATION = 1;
+
+  private static final int PROTECTED = 2;
+
+  private final CurrentParameters parameters;
+
+  private final RemovalListener removalListener;
+
+  /**
+   * A power of two in length so a session ID hash can be masked to its segment.
+   */
+  private volatile Segment[] segments;
+
+  private volatile int maximum = -1;
+
+  SessionCache(CurrentParameters parameters, RemovalListener removalListener)
+  {
+    this.parameters = parameters;
+    this.removalListener = removalListener;
+    segments = createSegments(segmentCount(parameters.get().maxInMemorySessions));
+  }
+
+  /**
+   * @return The number of segments for the given maximum, which gives each segment at least {@link #MINIMUM_SEGMENT_SIZE} sessions up to four segments
+   * per processor.
+   */
+  static int segmentCount(int maximum)
+  {
+    int segmentCount = Math.min(Runtime.getRuntime().availableProcessors() * 4, maximum / MINIMUM_SEGMENT_SIZE);
+    return segmentCount <= 1 ? 1 : Integer.highestOneBit(segmentCount);
+  }
+
+  private Segment[] createSegments(int segmentCount)
+  {
+    Segment[] segments = new Segment[segmentCount];
+    for (int i = 0; i < segments.length; i++)
+    {
+      segments[i] = new Segment();
+    }
+    return segments;
+  }
+
+  /**
+   * @return The cached session with the given ID or null. The access is counted towards keeping the session cached unless the segment is busy.
+   */
+  CookieBackedSession get(String sessionId)
+  {
+    return segmentFor(sessionId).get(sessionId);
+  }
+
+  /**
+   * @return true if the given session is the one cached for its ID.
+   */
+  boolean contains(CookieBackedSession session)
+  {
+    String sessionId = session.getId();
+    Node node = segmentFor(sessionId).nodes.get(sessionId);
+    return node != null && node.session == session;
+  }
+
+  /**
+   * Caches the given session unless a session with the same ID is already cached. Caching a session may evict others.
+   *
+   * @return The session already cached for this ID or null if the given session was cached.
+   */
+  CookieBackedSession putIfAbsent(CookieBackedSession session)
+  {
+    resizeIfNecessary();
+    List<CookieBackedSession> evicted = new ArrayList<>(1);
+    CookieBackedSession existing;
+    Segment segment = lockedSegmentFor(session.getId());
+    try
+    {
+      existing = segment.putIfAbsent(session, evicted);
+    }
+    finally
+    {
+      segment.lock.unlock();
+    }
+    for (CookieBackedSession evictedSession : evicted)
+    {
+      removalListener.onRemoval(evictedSession, false);
+    }
+    return existing;
+  }
+
+  /**
+   * Removes the given session if it's the one cached for its ID.
+   *
+   * @return true if the session was removed.
+   */
+  boolean remove(CookieBackedSession session)
+  {
+    Segment segment = lockedSegmentFor(session.getId());
+    try
+    {
+      return segment.remove(session);
+    }
+    finally
+    {
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Moves the given session to its current expiration time. This must be called when a change to the session, like a touch, moves its expiration
+   * time earlier. A session whose expiration moved later is rescheduled when its previous expiration time comes around.
+   */
+  void reschedule(CookieBackedSession session)
+  {
+    Segment segment = lockedSegmentFor(session.getId());
+    try
+    {
+      segment.reschedule(session);
+    }
+    finally
+    {
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the sessions that have expired. Each segment is only locked while its own expired sessions are removed.
+   *
+   * @return The number of sessions removed.
+   */
+  int expire()
+  {
+    List<CookieBackedSession> expired = new ArrayList<>();
+    for (Segment segment : segments)
+    {
+      segment.expire(expired);
+    }
+
+    for (CookieBackedSession session : expired)
+    {
+      removalListener.onRemoval(session, true);
+    }
+    return expired.size();
+  }
+
+  synchronized void clear()
+  {
+    for (Segment segment : segments)
+    {
+      segment.clear();
+    }
+  }
+
+  int size()
+  {
+    int size = 0;
+    for (Segment segment : segments)
+    {
+      size += segment.nodes.size();
+    }
+    return size;
+  }
+
+  int segmentCount()
+  {
+    return segments.length;
+  }
+
+  /**
+   * @return A snapshot of the cached sessions.
+   */
+  List<CookieBackedSession> sessions()
+  {
+    List<CookieBackedSession> sessions = new ArrayList<>();
+    for (Segment segment : segments)
+    {
+      for (Node node : segment.nodes.values())
+      {
+        sessions.add(node.session);
+      }
+    }
+    return sessions;
+  }
+
+  private Segment segmentFor(String sessionId)
+  {
+    Segment[] segments = this.segments;
+    int hash = sessionId.hashCode();
+    return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+  }
+
+  /**
+   * @return The segment for the session ID, locked. A segment that was retired by a rebuild before its lock was acquired is passed over for the one that
+   * replaced it.
+   */
+  private Segment lockedSegmentFor(String sessionId)
+  {
+    while (true)
+    {
+      Segment segment = segmentFor(sessionId);
+      segment.lock.lock();
+      if (!segment.retired)
+      {
+        return segment;
+      }
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Splits the maximum across the segments when it changes. Segments that are now over their share shrink as sessions are added to them. If the maximum
+   * calls for a different number of segments they're rebuilt instead.
+   */
+  private void resizeIfNecessary()
+  {
+    int maximum = parameters.get().maxInMemorySessions;
+    if (maximum != this.maximum)
+    {
+      List<CookieBackedSession> evicted = new ArrayList<>();
+      synchronized (this)
+      {
+        if (maximum != this.maximum)
+        {
+          int segmentCount = segmentCount(maximum);
+          Segment[] segments = segmentCount == this.segments.length ? this.segments : createSegments(segmentCount);
+          for (int i = 0; i < segments.length; i++)
+          {
+            segments[i].resize(maximum / segments.length + (i < maximum % segments.length ? 1 : 0));
+          }
+
+          if (segments != this.segments)
+          {
+            rebuild(segments, evicted);
+          }
+          this.maximum = maximum;
+        }
+      }
+
+      for (CookieBackedSession evictedSession : evicted)
+      {
+        removalListener.onRemoval(evictedSession, false);
+      }
+    }
+  }
+
+  /**
+   * Replaces the segments with the given ones and moves the cached sessions into them. The new segments are used as soon as they're published, so a session
+   * may be looked up before it has been moved. That lookup misses and, if the session is cached again meanwhile, the moved copy is dropped.
+   */
+  private void rebuild(Segment[] segments, List<CookieBackedSession> evicted)
+  {
+    Segment[] retired = this.segments;
+    this.segments = segments;
+
+    for (Segment segment : retired)
+    {
+      for (CookieBackedSession session : segment.retire())
+      {
+        Segment replacement = lockedSegmentFor(session.getId());
+        try
+        {
+          if (replacement.putIfAbsent(session, evicted) != null)
+          {
+            evicted.add(session);
+          }
+        }
+        finally
+        {
+          replacement.lock.unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * One independently locked part of the cache. The nodes map can be read without the lock, everything else is guarded by it.
+   */
+  private class Segment
+  {
+    final Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    private final TimerWheel timerWheel = new TimerWheel(System.currentTimeMillis());
+
+    private final Node window = new Node(null, null);
+
+    private final Node probation = new Node(null, null);
+
+    private final Node protectedSessions = new Node(null, null);
+
+    private int maximum;
+
+    private int windowMaximum;
+
+    private int protectedMaximum;
+
+    private int size;
+
+    private int windowSize;
+
+    private int protectedSize;
+
+    /**
+     * Set once this segment has been replaced by a rebuild and its sessions moved out.
+     */
+    private boolean retired;
+
+    CookieBackedSession get(String sessionId)
+    {
+      Node node = nodes.get(sessionId);
+      if (node == null)
+      {
+        return null;
+      }
+
+      if (lock.tryLock())
+      {
+        try
+        {
+          if (node.queue >= 0)
+          {
+            onAccess(node);
+          }
+        }
+        finally
+        {
+          lock.unlock();
+        }
+      }
+      return node.session;
+    }
+
+    CookieBackedSession putIfAbsent(CookieBackedSession session, List<CookieBackedSession> evicted)
+    {
+      lock.lock();
+      try
+      {
+        Node node = new Node(session.getId(), session);
+        Node existing = nodes.putIfAbsent(node.key, node);
+        if (existing != null)
+        {
+          onAccess(existing);
+          return existing.session;
+        }
+
+        sketch.increment(node.key.hashCode());
+        node.queue = WINDOW;
+        node.linkLast(window);
+        windowSize++;
+        size++;
+        schedule(node);
+        evict(evicted);
+        return null;
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    boolean remove(CookieBackedSession session)
+    {
+      lock.lock();
+      try
+      {
+        Node node = nodes.get(session.getId());
+        if (node != null && node.session == session)
+        {
+          unlink(node);
+          nodes.remove(node.key);
+          return true;
+        }
+        else
+        {
+          return false;
+        }
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    void reschedule(CookieBackedSession session)
+    {
+      lock.lock();
+      try
+      {
+        Node node = nodes.get(session.getId());
+        if (node != null && node.session == session)
+        {
+          timerWheel.deschedule(node);
+          schedule(node);
+        }
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    void expire(List<CookieBackedSession> expired)
+    {
+      lock.lock();
+      try
+      {
+        int sessionTimeoutMinutes = parameters.get().sessionTimeoutMinutes;
+        List<TimerWheel.Timer> due = new ArrayList<>();
+        timerWheel.advance(System.currentTimeMillis(), due);
+        for (TimerWheel.Timer timer : due)
+        {
+          Node node = (Node) timer;
+          if (node.session.hasExpired(sessionTimeoutMinutes))
+          {
+            unlink(node);
+            nodes.remove(node.key);
+            expired.add(node.session);
+          }
+          else
+          {
+            schedule(node);
+          }
+        }
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    void clear()
+    {
+      lock.lock();
+      try
+      {
+        for (Node node : nodes.values())
+        {
+          unlink(node);
+        }
+        nodes.clear();
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Empties this segment for a rebuild.
+     *
+     * @return The sessions that were cached here, least valuable first so the most valuable are the last to be evicted if the new segments are smaller.
+     */
+    List<CookieBackedSession> retire()
+    {
+      lock.lock();
+      try
+      {
+        retired = true;
+        List<CookieBackedSession> sessions = new ArrayList<>(nodes.size());
+        for (Node sentinel : new Node[] {probation, window, protectedSessions})
+        {
+          for (Node node = sentinel.next; node != sentinel; node = node.next)
+          {
+            sessions.add(node.session);
+          }
+        }
+        for (Node node : nodes.values())
+        {
+          unlink(node);
+        }
+        nodes.clear();
+        return sessions;
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    void resize(int maximum)
+    {
+      lock.lock();
+      try
+      {
+        /*
+         * A parameters source may return a negative maximum, which a session added while the cache is being turned off would otherwise be evicted down to.
+         */
+        maximum = Math.max(0, maximum);
+        this.maximum = maximum;
+        windowMaximum = Math.max(1, maximum / 100);
+        protectedMaximum = (int) ((maximum - windowMaximum) * 0.8);
+        sketch.ensureCapacity(maximum);
+      }
+      finally
+      {
+        lock.unlock();
+      }
+    }
+
+    private void onAccess(Node node)
+    {
+      sketch.increment(node.key.hashCode());
+      switch (node.queue)
+      {
+        case WINDOW:
+          node.unlink();
+          node.linkLast(window);
+          break;
+
+        case PROBATION:
+          node.unlink();
+          node.queue = PROTECTED;
+          node.linkLast(protectedSessions);
+          protectedSize++;
+          while (protectedSize > protectedMaximum)
+          {
+            Node demoted = protectedSessions.next;
+            demoted.unlink();
+            demoted.queue = PROBATION;
+            demoted.linkLast(probation);
+            protectedSize--;
+          }
+          break;
+
+        case PROTECTED:
+          node.unlink();
+          node.linkLast(protectedSessions);
+          break;
+      }
+    }
+
+    /**
+     * Moves sessions that overflowed the window to probation, then evicts until the segment is within its maximum. The most recent arrival in
+     * probation is only admitted over the least recently used session in probation if it has been accessed more often.
+     */
+    private void evict(List<CookieBackedSession> evicted)
+    {
+      while (windowSize > windowMaximum)
+      {
+        Node node = window.next;
+        node.unlink();
+        node.queue = PROBATION;
+        node.linkLast(probation);
+        windowSize--;
+      }
+
+      while (size > maximum)
+      {
+        Node victim = firstOf(probation, protectedSessions, window);
+        if (victim == null)
+        {
+          break;
+        }
+        Node candidate = probation.previous;
+        if (candidate != probation && candidate != victim && sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(victim.key.hashCode()))
+        {
+          victim = candidate;
+        }
+
+        unlink(victim);
+        nodes.remove(victim.key);
+        evicted.add(victim.session);
+      }
+    }
+
+    private void schedule(Node node)
+    {
+      node.deadline = node.session.expiresAt(parameters.get().sessionTimeoutMinutes);
+      if (node.deadline != Long.MAX_VALUE)
+      {
+        timerWheel.schedule(node);
+      }
+    }
+
+    private void unlink(Node node)
+    {
+      if (node.queue == WINDOW)
+      {
+        windowSize--;
+      }
+      else if (node.queue == PROTECTED)
+      {
+        protectedSize--;
+      }
+      size--;
+      node.queue = -1;
+      node.unlink();
+      timerWheel.deschedule(node);
+    }
+
+    private Node firstOf(Node... sentinels)
+    {
+      for (Node sentinel : sentinels)
+      {
+        if (sentinel.next != sentinel)
+        {
+          return sentinel.next;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A cached session linked into one of the three LRU queues of its segment. Each queue is a circular list headed by a sentinel node, least recently
+   * used first. Nodes are also scheduled on the segment's timer wheel at their expiration time.
+   */
+  private static class Node extends TimerWheel.Timer
+  {
+    final String key;
+
+    final CookieBackedSession session;
+
+    Node previous = this;
+
+    Node next = this;
+
+    int queue = -1;
+
+    Node(String key, CookieBackedSession session)
+    {
+      this.key = key;
+      this.session = session;
+    }
+
+    void linkLast(Node sentinel)
+    {
+      previous = sentinel.previous;
+      next = sentinel;
+      sentinel.previous.next = this;
+      sentinel.previous = this;
+    }
+
+    void unlink()
+    {
+      previous.next = next;
+      next.previous = previous;
+      previous = next = this;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package org.baswell.sessioncookie;
+
+import javax.crypto.AEADBadTagException;
+import java.security.GeneralSecurityException;
+
+/**
+ * Seals (encrypts and authenticates, or only authenticates) and opens the encoded contents of session cookies with a single key. An engine is created for each
+ * key by {@link SessionCookieParameters#createCryptoEngine(byte[])} and is used by many request threads at once so it must be thread safe.
+ *
+ * <p>
+ * The built-in engines are chosen by {@link SessionCookieParameters#getSymmetricEncryptionAlgorithm()}:
+ * </p>
+ * <ul>
+ *   <li>{@link SessionCookieParameters#AES_GCM_ALGORITHM} and {@link SessionCookieParameters#CHACHA20_POLY1305_ALGORITHM} encrypt and authenticate with a
+ *   unique nonce for each cookie.</li>
+ *   <li>MAC algorithms, like {@link SessionCookieParameters#HMAC_SHA256_ALGORITHM}, only authenticate so the client can read, but not change, the session.</li>
+ *   <li>Any other algorithm, like the default <code>AES</code>, is used as a {@link javax.crypto.Cipher} transformation that only encrypts. These cookies can't
+ *   be checked for tampering before they are decoded so an authenticated algorithm should be preferred.</li>
+ * </ul>
+ */
+public interface SessionCookieCryptoEngine
+{
+  /**
+   * @param associatedData Bytes sent in the clear with the cookie, like its format version, that must be authenticated along with the plaintext.
+   * @param plaintext The encoded session cookie contents
+   * @return The sealed plaintext, including anything like a nonce or tag needed to open it.
+   * @throws GeneralSecurityException If the plaintext could not be sealed.
+   */
+  byte[] seal(byte[] associatedData, byte[] plaintext) throws GeneralSecurityException;
+
+  /**
+   * Authentication must be checked before any plaintext is returned and should take the same time however much of the tag is wrong.
+   *
+   * @param associatedData The associated data the cookie was sealed with
+   * @param sealed Contains the sealed bytes
+   * @param offset The offset of the sealed bytes
+   * @param length The number of sealed bytes
+   * @return The plaintext
+   * @throws GeneralSecurityException If the sealed bytes were not sealed by this engine's key with the same associated data, like {@link AEADBadTagException}.
+   */
+  byte[] open(byte[] associatedData, byte[] sealed, int offset, int length) throws GeneralSecurityException;
+
+  /**
+   * @return true if {@link #open(byte[], byte[], int, int)} rejects cookies that have been changed. Only cookies from engines that don't authenticate may be in
+   * the format used before cookies had a version.
+   */
+  default boolean isAuthenticated()
+  {
+    return true;
+  }
+
+  /**
+   * @param algorithm The symmetric encryption algorithm
+   * @param key The encoded key
+   * @return The built-in engine for the algorithm.
+   * @throws GeneralSecurityException If the algorithm isn't supported by this JVM or the key isn't valid for it.
+   */
+  static SessionCookieCryptoEngine forAlgorithm(String algorithm, byte[] key) throws GeneralSecurityException
+  {
+    if (AeadCryptoEngine.isAead(algorithm))
+    {
+      return new AeadCryptoEngine(algorithm, key);
+    }
+    else if (MacCryptoEngine.isMac(algorithm))
+    {
+      return new MacCryptoEngine(algorithm, key);
+    }
+    else
+    {
+      return new CipherCryptoEngine(algorithm, key);
+    }
+  }
+}
@@ -18,7 +18,7 @@ public class SessionCookieDefaultErrorHandler implements SessionCookieErrorHandl
 
   public void onSessionCookieSizeWarning(HttpSession session, int cookieSizeBytes)
   {
-    log.warn(format("The session cookie for %s is %i bytes in size and might not be re=transmitted by the browser could not be decoded.", session.getId(), cookieSizeBytes));
+    log.warn(format("The session cookie for %s is %d bytes in size and might not be re=transmitted by the browser could not be decoded.", session.getId(), cookieSizeBytes));
   }
 
   public void onCookieDecodeError(SessionCookieDecodingException exception)
@@ -41,4 +41,9 @@ public class SessionCookieDefaultErrorHandler implements SessionCookieErrorHandl
   {
     log.error("Class not found exception from within session.", exception);
   }
+
+  public void onInvalidParameters(IllegalArgumentException exception, SessionCookieParameters parameters)
+  {
+    log.error(format("Invalid SessionCookie parameters %s, keeping the previous parameters.", parameters.getClass().toString()), exception);
+  }
 }
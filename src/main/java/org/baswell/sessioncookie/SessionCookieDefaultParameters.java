@@ -2,31 +2,56 @@ package org.baswell.sessioncookie;
 
 import javax.crypto.KeyGenerator;
 import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Default parameters used for {@link SessionCookieParameters}.
+ * Every parameter can be changed while the filter is running and takes effect after the next {@link SessionCookieRequestHandler#reloadParameters()}. Parameters
+ * changed through the {@link SessionCookieMXBean} are reloaded immediately.
  */
 public class SessionCookieDefaultParameters implements SessionCookieParameters
 {
-  private int sessionTimeoutMinutes = DEFAULT_SESSION_TIMEOUT_MINUTES;
+  private volatile int sessionTimeoutMinutes = DEFAULT_SESSION_TIMEOUT_MINUTES;
 
-  private int inactivityTimeoutSeconds = DEFAULT_INACTIVITY_TIMEOUT_SECONDS;
+  private volatile int inactivityTimeoutSeconds = DEFAULT_INACTIVITY_TIMEOUT_SECONDS;
 
-  private int maxInMemorySessions = DEFAULT_MAX_IN_MEMORY_SESSIONS;
+  private volatile int touchGranularitySeconds = DEFAULT_TOUCH_GRANULARITY_SECONDS;
 
-  private boolean purgeSessionCacheWithBackgroundThread = DEFAULT_PURGE_SESSION_CACHE_WITH_BACKGROUND_THREAD;
+  private volatile int maxInMemorySessions = DEFAULT_MAX_IN_MEMORY_SESSIONS;
 
-  private int minimumSecondsBetweenSessionCachePurges = DEFAULT_MINIMUM_SECONDS_BETWEEN_SESSION_CACHE_PURGES;
+  private volatile boolean purgeSessionCacheWithBackgroundThread = DEFAULT_PURGE_SESSION_CACHE_WITH_BACKGROUND_THREAD;
+
+  private volatile boolean purgeSessionCacheWithVirtualThread = DEFAULT_PURGE_SESSION_CACHE_WITH_VIRTUAL_THREAD;
+
+  private volatile int minimumSecondsBetweenSessionCachePurges = DEFAULT_MINIMUM_SECONDS_BETWEEN_SESSION_CACHE_PURGES;
 
   private volatile byte[] key;
 
-  private String symmetricEncryptionAlgorithm = DEFAULT_SYMMETRIC_ENCRYPTION_ALGORITHM;
+  private volatile String symmetricEncryptionAlgorithm = DEFAULT_SYMMETRIC_ENCRYPTION_ALGORITHM;
+
+  private volatile int symmetricEncryptionKeyId = DEFAULT_SYMMETRIC_ENCRYPTION_KEY_ID;
+
+  private volatile Map<Integer, byte[]> previousSymmetricEncryptionKeys = Collections.emptyMap();
+
+  private volatile int keyRetirementSeconds = DEFAULT_KEY_RETIREMENT_SECONDS;
+
+  private volatile String cookieDomain = DEFAULT_COOKIE_DOMAIN;
+
+  private volatile String cookiePath = DEFAULT_COOKIE_PATH;
+
+  private volatile boolean cookieSecure = DEFAULT_COOKIE_SECURE;
+
+  private volatile boolean cookieHttpOnly = DEFAULT_COOKIE_HTTP_ONLY;
+
+  private volatile String cookieSameSite = DEFAULT_COOKIE_SAME_SITE;
 
-  private String cookieDomain = DEFAULT_COOKIE_DOMAIN;
+  private volatile String cookieName = DEFAULT_COOKIE_NAME;
 
-  private String cookieName = DEFAULT_COOKIE_NAME;
+  private volatile int cookieSizeWarning = DEFAULT_COOKIE_SIZE_WARNING;
 
-  private int cookieSizeWarning = DEFAULT_COOKIE_SIZE_WARNING;
+  private volatile int parametersReloadSeconds = DEFAULT_PARAMETERS_RELOAD_SECONDS;
 
   public void setSessionTimeoutMinutes(int sessionTimeoutMinutes)
   {
@@ -49,6 +74,17 @@ public class SessionCookieDefaultParameters implements SessionCookieParameters
     return inactivityTimeoutSeconds;
   }
 
+  public void setTouchGranularitySeconds(int touchGranularitySeconds)
+  {
+    this.touchGranularitySeconds = touchGranularitySeconds;
+  }
+
+  @Override
+  public int getTouchGranularitySeconds()
+  {
+    return touchGranularitySeconds;
+  }
+
 
   public void setMaxInMemorySessions(int maxInMemorySessions)
   {
@@ -72,6 +108,17 @@ public class SessionCookieDefaultParameters implements SessionCookieParameters
     return purgeSessionCacheWithBackgroundThread;
   }
 
+  public void setPurgeSessionCacheWithVirtualThread(boolean purgeSessionCacheWithVirtualThread)
+  {
+    this.purgeSessionCacheWithVirtualThread = purgeSessionCacheWithVirtualThread;
+  }
+
+  @Override
+  public boolean getPurgeSessionCacheWithVirtualThread()
+  {
+    return purgeSessionCacheWithVirtualThread;
+  }
+
   public void setMinimumSecondsBetweenSessionCachePurges(int minimumSecondsBetweenSessionCachePurges)
   {
     this.minimumSecondsBetweenSessionCachePurges = minimumSecondsBetweenSessionCachePurges;
@@ -108,7 +155,7 @@ public class SessionCookieDefaultParameters implements SessionCookieParameters
       {
         if (key == null)
         {
-          KeyGenerator generator = KeyGenerator.getInstance(getSymmetricEncryptionAlgorithm());
+          KeyGenerator generator = KeyGenerator.getInstance(AeadCryptoEngine.keyAlgorithm(getSymmetricEncryptionAlgorithm()));
           generator.init(256);
           key = generator.generateKey().getEncoded();
         }
@@ -118,6 +165,39 @@ public class SessionCookieDefaultParameters implements SessionCookieParameters
     return key;
   }
 
+  public void setSymmetricEncryptionKeyId(int symmetricEncryptionKeyId)
+  {
+    this.symmetricEncryptionKeyId = symmetricEncryptionKeyId;
+  }
+
+  @Override
+  public int getSymmetricEncryptionKeyId()
+  {
+    return symmetricEncryptionKeyId;
+  }
+
+  public void setPreviousSymmetricEncryptionKeys(Map<Integer, byte[]> previousSymmetricEncryptionKeys)
+  {
+    this.previousSymmetricEncryptionKeys = previousSymmetricEncryptionKeys == null ? Collections.<Integer, byte[]>emptyMap() : new HashMap<>(previousSymmetricEncryptionKeys);
+  }
+
+  @Override
+  public Map<Integer, byte[]> getPreviousSymmetricEncryptionKeys()
+  {
+    return previousSymmetricEncryptionKeys;
+  }
+
+  public void setKeyRetirementSeconds(int keyRetirementSeconds)
+  {
+    this.keyRetirementSeconds = keyRetirementSeconds;
+  }
+
+  @Override
+  public int getKeyRetirementSeconds()
+  {
+    return keyRetirementSeconds;
+  }
+
   public void setCookieDomain(String cookieDomain)
   {
     this.cookieDomain = cookieDomain;
@@ -129,6 +209,50 @@ public class SessionCookieDefaultParameters implements SessionCookieParameters
     return cookieDomain;
   }
 
+  public void setCookiePath(String cookiePath)
+  {
+    this.cookiePath = cookiePath;
+  }
+
+  @Override
+  public String getCookiePath()
+  {
+    return cookiePath;
+  }
+
+  public void setCookieSecure(boolean cookieSecure)
+  {
+    this.cookieSecure = cookieSecure;
+  }
+
+  @Override
+  public boolean getCookieSecure()
+  {
+    return cookieSecure;
+  }
+
+  public void setCookieHttpOnly(boolean cookieHttpOnly)
+  {
+    this.cookieHttpOnly = cookieHttpOnly;
+  }
+
+  @Override
+  public boolean getCookieHttpOnly()
+  {
+    return cookieHttpOnly;
+  }
+
+  public void setCookieSameSite(String cookieSameSite)
+  {
+    this.cookieSameSite = cookieSameSite;
+  }
+
+  @Override
+  public String getCookieSameSite()
+  {
+    return cookieSameSite;
+  }
+
   public void setCookieName(String cookieName)
   {
     this.cookieName = cookieName;
@@ -150,4 +274,15 @@ public class SessionCookieDefaultParameters implements SessionCookieParameters
   {
     return cookieSizeWarning;
   }
+
+  public void setParametersReloadSeconds(int parametersReloadSeconds)
+  {
+    this.parametersReloadSeconds = parametersReloadSeconds;
+  }
+
+  @Override
+  public int getParametersReloadSeconds()
+  {
+    return parametersReloadSeconds;
+  }
 }
@@ -41,4 +41,15 @@ public interface SessionCookieErrorHandler
    * @param exception The exception thrown while trying to deserialize the session
    */
   void onClassNotFoundFromSessionException(ClassNotFoundException exception);
+
+  /**
+   * Called when a scheduled reload of the parameters finds an invalid value, like a cookie attribute or key ID. The parameters from before the reload are
+   * kept until the next reload is due. Does nothing by default.
+   * @param exception The exception describing the invalid value
+   * @param parameters The session parameters that were reloaded
+   * @see SessionCookieParameters#getParametersReloadSeconds()
+   */
+  default void onInvalidParameters(IllegalArgumentException exception, SessionCookieParameters parameters)
+  {
+  }
 }
@@ -0,0 +1,212 @@
+package org.baswell.sessioncookie;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * JDK Flight Recorder events for the session cookie pipeline. The events are defined at runtime with <code>jdk.jfr.EventFactory</code> through reflection
+ * so this library still runs on Java 8 releases without JFR, where every event is simply disabled. When no recording has the events enabled the only cost is
+ * checking {@link EventType#begin()}.
+ *
+ * Usage is always:
+ * <pre>
+ * Object event = SessionCookieEvents.DECODE.begin();
+ * ...
+ * if (event != null)
+ * {
+ *   SessionCookieEvents.DECODE.commit(event, cookieBytes, attributeCount, cacheOutcome);
+ * }
+ * </pre>
+ */
+class SessionCookieEvents
+{
+  static final String HIT = "HIT";
+
+  static final String MISS = "MISS";
+
+  static final String DISABLED = "DISABLED";
+
+  static final String EXPIRED = "EXPIRED";
+
+  static final String FAILED = "FAILED";
+
+  static final String ISSUED = "ISSUED";
+
+  static final String UNCHANGED = "UNCHANGED";
+
+  static final String EVICTED = "EVICTED";
+
+  /**
+   * A session cookie received from the client was resolved to a session, either from the cache or by decrypting it.
+   */
+  static final EventType DECODE = new EventType("SessionCookieDecode", "Session Cookie Decode", "A received session cookie was resolved to a session",
+      new Field(int.class, "cookieBytes", "Cookie Bytes", true),
+      new Field(int.class, "attributeCount", "Attribute Count", false),
+      new Field(String.class, "cacheOutcome", "Cache Outcome", false));
+
+  /**
+   * A session was encoded and, unless the client already holds the same cookie, encrypted and sent back.
+   */
+  static final EventType ENCODE = new EventType("SessionCookieEncode", "Session Cookie Encode", "A session was encoded into a session cookie",
+      new Field(int.class, "cookieBytes", "Cookie Bytes", true),
+      new Field(int.class, "attributeCount", "Attribute Count", false),
+      new Field(String.class, "outcome", "Outcome", false));
+
+  /**
+   * A session was removed from the session cache because it was full or the session expired.
+   */
+  static final EventType EVICT = new EventType("SessionCacheEvict", "Session Cache Evict", "A session was removed from the session cache",
+      new Field(int.class, "attributeCount", "Attribute Count", false),
+      new Field(String.class, "cacheOutcome", "Cache Outcome", false));
+
+  /**
+   * The session cache was purged of expired sessions.
+   */
+  static final EventType PURGE = new EventType("SessionCachePurge", "Session Cache Purge", "The session cache was purged of expired sessions",
+      new Field(int.class, "sessionsRemoved", "Sessions Removed", false),
+      new Field(int.class, "cacheSize", "Cache Size", false));
+
+  static class EventType
+  {
+    private final MethodHandle newEvent;
+
+    private final MethodHandle isEnabled;
+
+    private final MethodHandle begin;
+
+    private final MethodHandle set;
+
+    private final MethodHandle commit;
+
+    EventType(String name, String label, String description, Field... fields)
+    {
+      MethodHandle newEvent = null;
+      MethodHandle isEnabled = null;
+      MethodHandle begin = null;
+      MethodHandle set = null;
+      MethodHandle commit = null;
+      try
+      {
+        Constructor<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+        List<Object> eventAnnotations = new ArrayList<>();
+        eventAnnotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.Name"), "org.baswell.sessioncookie." + name));
+        eventAnnotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.Label"), label));
+        eventAnnotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.Description"), description));
+        eventAnnotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"SessionCookie"}));
+
+        Constructor<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+        List<Object> valueDescriptors = new ArrayList<>();
+        for (Field field : fields)
+        {
+          List<Object> fieldAnnotations = new ArrayList<>();
+          fieldAnnotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.Label"), field.label));
+          if (field.bytes)
+          {
+            fieldAnnotations.add(annotationElement.newInstance(Class.forName("jdk.jfr.DataAmount"), "BYTES"));
+          }
+          valueDescriptors.add(valueDescriptor.newInstance(field.type, field.name, fieldAnnotations));
+        }
+
+        Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+        Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+        Class<?> eventClass = Class.forName("jdk.jfr.Event");
+        Object eventFactory = eventFactoryClass.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, valueDescriptors);
+        Object eventType = eventFactoryClass.getMethod("getEventType").invoke(eventFactory);
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        newEvent = lookup.findVirtual(eventFactoryClass, "newEvent", methodType(eventClass)).bindTo(eventFactory).asType(methodType(Object.class));
+        isEnabled = lookup.findVirtual(eventTypeClass, "isEnabled", methodType(boolean.class)).bindTo(eventType);
+        begin = lookup.findVirtual(eventClass, "begin", methodType(void.class)).asType(methodType(void.class, Object.class));
+        set = lookup.findVirtual(eventClass, "set", methodType(void.class, int.class, Object.class)).asType(methodType(void.class, Object.class, int.class, Object.class));
+        commit = lookup.findVirtual(eventClass, "commit", methodType(void.class)).asType(methodType(void.class, Object.class));
+      }
+      catch (Throwable e)
+      {
+        newEvent = null;
+      }
+
+      this.newEvent = newEvent;
+      this.isEnabled = isEnabled;
+      this.begin = begin;
+      this.set = set;
+      this.commit = commit;
+    }
+
+    /**
+     * @return true if JFR is available on this JVM.
+     */
+    boolean isAvailable()
+    {
+      return newEvent != null;
+    }
+
+    /**
+     * Starts timing an event.
+     *
+     * @return The event or null if JFR isn't available or no recording has this event enabled.
+     */
+    Object begin()
+    {
+      if (newEvent == null)
+      {
+        return null;
+      }
+
+      try
+      {
+        if (!(boolean) isEnabled.invokeExact())
+        {
+          return null;
+        }
+        Object event = (Object) newEvent.invokeExact();
+        begin.invokeExact(event);
+        return event;
+      }
+      catch (Throwable e)
+      {
+        return null;
+      }
+    }
+
+    /**
+     * Ends the event started by {@link #begin()} and commits it with the given field values, in the order the fields were defined.
+     */
+    void commit(Object event, Object... values)
+    {
+      try
+      {
+        for (int i = 0; i < values.length; i++)
+        {
+          set.invokeExact(event, i, values[i]);
+        }
+        commit.invokeExact(event);
+      }
+      catch (Throwable e)
+      {}
+    }
+  }
+
+  static class Field
+  {
+    final Class<?> type;
+
+    final String name;
+
+    final String label;
+
+    final boolean bytes;
+
+    Field(Class<?> type, String name, String label, boolean bytes)
+    {
+      this.type = type;
+      this.name = name;
+      this.label = label;
+      this.bytes = bytes;
+    }
+  }
+}
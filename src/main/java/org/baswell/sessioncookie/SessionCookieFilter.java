@@ -9,11 +9,16 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import javax.management.JMException;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import static java.lang.String.format;
@@ -54,6 +59,35 @@ import static org.baswell.sessioncookie.SharedMethods.hasContent;
  * }
  * </pre>
  *
+ * <h3>SessionCookieMetricsClassName</h3>
+ * <p>
+ *  The full qualified class name of the object that implements {@link SessionCookieMetrics}. This class must have a default, public constructor
+ *  that will be used to initialize a singleton object. Use {@link SessionCookieHistogramMetrics} for the built-in counters and latency histograms. The filter's
+ *  MBean keeps its own statistics regardless of this parameter. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>SessionCookieMetricsClassName</param-name>
+ *   <param-value>org.baswell.sessioncookie.SessionCookieHistogramMetrics</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
+ * <h3>RegisterMBean</h3>
+ * <p>
+ *  If true a {@link SessionCookieMXBean} is registered with the platform MBean server for this filter, exposing cache statistics and letting operators resize
+ *  the session cache and change the purge interval and touch policy while the application is running. The default value is true. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>RegisterMBean</param-name>
+ *   <param-value>false</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
  * <h3>SessionTimeoutMinutes</h3>
  * <p>
  *  The time, in minutes, from creation time that sessions are allowed to remain active. A negative time indicates the session should never timeout. This parameter is only used if <code>SessionCookieParametersClassName</code>
@@ -82,9 +116,25 @@ import static org.baswell.sessioncookie.SharedMethods.hasContent;
  * }
  * </pre>
  *
+ * <h3>TouchGranularitySeconds</h3>
+ * <p>
+ *  The minimum time, in seconds, since a session was last touched before its cookie is reissued just to update the last accessed time. Only used when <code>InactivityTimeoutSeconds</code>
+ *  is greater than zero. A zero value reissues the cookie on every request and a negative value uses 10% of the inactivity timeout. This parameter is only used if <code>SessionCookieParametersClassName</code>
+ *  is not specified. The default value for this parameters is {@link SessionCookieParameters#DEFAULT_TOUCH_GRANULARITY_SECONDS}. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>TouchGranularitySeconds</param-name>
+ *   <param-value>60</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
  * <h3>MaxInMemorySessions</h3>
  * <p>
- *  The maximum number of sessions that are cached in memory. A zero or negative value indicates that no sessions are cached. This parameter is only used if <code>SessionCookieParametersClassName</code>
+ *  The maximum number of sessions that are cached in memory. A zero or negative value indicates that no sessions are cached. When the cache is full, caching a session
+ *  evicts whichever session has been used least often recently. This parameter is only used if <code>SessionCookieParametersClassName</code>
  *  is not specified. The default value for this parameters is {@link SessionCookieParameters#DEFAULT_MAX_IN_MEMORY_SESSIONS}. Example:
  * </p>
  * <pre>
@@ -110,10 +160,25 @@ import static org.baswell.sessioncookie.SharedMethods.hasContent;
  * }
  * </pre>
  *
+ * <h3>PurgeSessionCacheWithVirtualThread</h3>
+ * <p>
+ *  Indicates if the background thread used to purge the session cache should be a virtual thread. This is ignored if the JVM doesn't support virtual threads. This parameter is only used if <code>SessionCookieParametersClassName</code>
+ *  is not specified and <code>PurgeSessionCacheWithBackgroundThread</code> is true. The default value for this parameters is {@link SessionCookieParameters#DEFAULT_PURGE_SESSION_CACHE_WITH_VIRTUAL_THREAD}. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>PurgeSessionCacheWithVirtualThread</param-name>
+ *   <param-value>true</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
  * <h3>MinimumSecondsBetweenSessionCachePurge</h3>
  * <p>
- *  The minimum number of seconds between session cache purges. This parameter is only used if <code>SessionCookieParametersClassName</code>
- *  is not specified and <code>MaxInMemorySessions</code> is greater than zero. The default value for this parameters is {@link SessionCookieParameters#DEFAULT_MAX_IN_MEMORY_SESSIONS}. Example:
+ *  The number of seconds between session cache purges when the cache is moderately full. Purges happen up to four times as often when the cache is nearly full and
+ *  four times less often when it's empty. This parameter is only used if <code>SessionCookieParametersClassName</code>
+ *  is not specified and <code>MaxInMemorySessions</code> is greater than zero. The default value for this parameters is {@link SessionCookieParameters#DEFAULT_MINIMUM_SECONDS_BETWEEN_SESSION_CACHE_PURGES}. Example:
  * </p>
  * <pre>
  * {@code
@@ -126,7 +191,9 @@ import static org.baswell.sessioncookie.SharedMethods.hasContent;
  *
  * <h3>SymmetricEncryptionAlgorithm</h3>
  * <p>
- *  The symmetric encryption algorithm used to encrypt and decrypt the session cookie. This parameter is only used if <code>SessionCookieParametersClassName</code>
+ *  The symmetric encryption algorithm used to encrypt and decrypt the session cookie. <code>AES/GCM/NoPadding</code> and <code>ChaCha20-Poly1305</code> also
+ *  authenticate the cookie so a changed cookie is rejected before it's decoded, which the default <code>AES</code> can't do. Set this to <code>HmacSHA256</code>
+ *  to only sign the session cookie when sessions don't hold anything that must be kept from the client. See {@link SessionCookieCryptoEngine}. This parameter is only used if <code>SessionCookieParametersClassName</code>
  *  is not specified. The default value for this parameters is {@link SessionCookieParameters#DEFAULT_SYMMETRIC_ENCRYPTION_ALGORITHM}. Example:
  * </p>
  * <pre>
@@ -152,6 +219,51 @@ import static org.baswell.sessioncookie.SharedMethods.hasContent;
  * }
  * </pre>
  *
+ * <h3>SymmetricEncryptionKeyId</h3>
+ * <p>
+ *  The ID, from 0 to 255, of <code>SymmetricEncryptionKey</code>. The ID is sent with each session cookie so the key that opens it is found with one lookup.
+ *  To rotate keys without logging out every user, move the current key to <code>PreviousSymmetricEncryptionKeys</code> and set a new key with a new ID. This
+ *  parameter is only used if <code>SessionCookieParametersClassName</code> is not specified. The default value for this parameters is
+ *  {@link SessionCookieParameters#DEFAULT_SYMMETRIC_ENCRYPTION_KEY_ID}, cookies don't carry a key ID. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>SymmetricEncryptionKeyId</param-name>
+ *   <param-value>2</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
+ * <h3>PreviousSymmetricEncryptionKeys</h3>
+ * <p>
+ *  A comma delimited list of keys, each a key ID and a Base64 encoded key separated by a colon, that still open session cookies but no longer seal them.
+ *  This parameter is only used if <code>SessionCookieParametersClassName</code> is not specified. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>PreviousSymmetricEncryptionKeys</param-name>
+ *   <param-value>1:Wi2HOOf7B/5kGMnccsodpYPB6xhDFD0AbKTx1gX3Vb8=</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
+ * <h3>KeyRetirementSeconds</h3>
+ * <p>
+ *  The number of seconds a key keeps opening session cookies after it is replaced, while the application is running, by a key with a different ID. A negative
+ *  value never retires replaced keys. This parameter is only used if <code>SessionCookieParametersClassName</code> is not specified. The default value for this
+ *  parameters is {@link SessionCookieParameters#DEFAULT_KEY_RETIREMENT_SECONDS}. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>KeyRetirementSeconds</param-name>
+ *   <param-value>3600</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
  * <h3>CookieDomain</h3>
  * <p>
  *  The domain set ({@link javax.servlet.http.Cookie#setDomain(String)}) on the session cookie. This parameter is only used if <code>SessionCookieParametersClassName</code>
@@ -166,6 +278,64 @@ import static org.baswell.sessioncookie.SharedMethods.hasContent;
  * }
  * </pre>
  *
+ * <h3>CookiePath</h3>
+ * <p>
+ *  The path set ({@link javax.servlet.http.Cookie#setPath(String)}) on the session cookie. This may be a comma delimited list in which case the cookie is issued
+ *  for each path, so browsers don't upload the session on requests for static resources outside of them. If this parameter isn't specified and every
+ *  <code>OnlyPaths</code> pattern is a literal path or a literal prefix followed by <code>.*</code>, the cookie paths are derived from <code>OnlyPaths</code>.
+ *  This parameter is only used if <code>SessionCookieParametersClassName</code> is not specified. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>CookiePath</param-name>
+ *   <param-value>/app,/api</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
+ * <h3>CookieSecure</h3>
+ * <p>
+ *  If true the session cookie is only sent by browsers over HTTPS. This parameter is only used if <code>SessionCookieParametersClassName</code>
+ *  is not specified. The default value for this parameters is {@link SessionCookieParameters#DEFAULT_COOKIE_SECURE}. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>CookieSecure</param-name>
+ *   <param-value>true</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
+ * <h3>CookieHttpOnly</h3>
+ * <p>
+ *  If true the session cookie can't be read by scripts. This parameter is only used if <code>SessionCookieParametersClassName</code>
+ *  is not specified. The default value for this parameters is {@link SessionCookieParameters#DEFAULT_COOKIE_HTTP_ONLY}. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>CookieHttpOnly</param-name>
+ *   <param-value>true</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
+ * <h3>CookieSameSite</h3>
+ * <p>
+ *  The SameSite attribute of the session cookie, <code>Strict</code>, <code>Lax</code> or <code>None</code>. This parameter is only used if <code>SessionCookieParametersClassName</code>
+ *  is not specified. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>CookieSameSite</param-name>
+ *   <param-value>Lax</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
  * <h3>CookieName</h3>
  * <p>
  *  The name used for the session cookie. This parameter is only used if <code>SessionCookieParametersClassName</code>  is not specified. Example:
@@ -192,6 +362,21 @@ import static org.baswell.sessioncookie.SharedMethods.hasContent;
  * }
  * </pre>
  *
+ * <h3>ParametersReloadSeconds</h3>
+ * <p>
+ *  The number of seconds between reloads of the parameters. Parameters are read into a snapshot that is only refreshed this often, or when reloaded through the
+ *  {@link SessionCookieMXBean}. A zero or negative value never reloads on a schedule. This parameter is only used if <code>SessionCookieParametersClassName</code>
+ *  is not specified. The default value for this parameters is {@link SessionCookieParameters#DEFAULT_PARAMETERS_RELOAD_SECONDS}. Example:
+ * </p>
+ * <pre>
+ * {@code
+ * <init-param>
+ *   <param-name>ParametersReloadSeconds</param-name>
+ *   <param-value>300</param-value>
+ * </init-param>
+ * }
+ * </pre>
+ *
  * <p>
  * If you have HTTP requests that are not accessing {@link javax.servlet.http.HttpSession} there are two parameters you can specify to improve the performance of this filter.
  * </p>
@@ -206,21 +391,31 @@ import static org.baswell.sessioncookie.SharedMethods.hasContent;
  *
  * <p>
  * The <status>OnlyPaths</status> parameter must be a list (comma delimited) of valid Java regular expression. If specified, only request URIs that match
- * this pattern will be updated to support session cookies. The other supported parameter is <code>ExceptPaths</code>:
+ * this pattern will be updated to support session cookies. The other supported parameter is <code>ExcludedPaths</code>:
  * </p>
  *
  * <pre>
  * {@code
  * <init-param>
- *   <param-name>ExceptPaths</param-name>
+ *   <param-name>ExcludedPaths</param-name>
  *   <param-value>/img/*,/css/.*,/js/.*</param-value>
  * </init-param>
  * }
  * </pre>
  *
  * <p>
- * The <code>ExceptPaths</code> parameter must be a list (comma delimited) of valid Java regular expression. If specified, all request URIs that match this pattern will not be updated to support session cookies. If both <code>ONLY</code> and <code>ExceptPaths</code> are specified
- * then request will not be updated to support session cookies if the <code>OnlyPaths</code> pattern does not match or the <code>ExceptPaths</code> pattern does match.
+ * The <code>ExcludedPaths</code> parameter must be a list (comma delimited) of valid Java regular expression. If specified, all request URIs that match this pattern will not be updated to support session cookies. If both <code>OnlyPaths</code> and <code>ExcludedPaths</code> are specified
+ * then request will not be updated to support session cookies if the <code>OnlyPaths</code> pattern does not match or the <code>ExcludedPaths</code> pattern does match.
+ * </p>
+ * <p>
+ * Patterns that are a literal path, a literal prefix followed by <code>.*</code> (like <code>/css/.*</code>) or <code>.*</code> followed by a literal suffix
+ * (like <code>.*\.png</code>) are matched without running a regular expression, so prefer these forms when there are many patterns. The decision for each
+ * request URI is also cached.
+ * </p>
+ * <p>
+ * When <code>OnlyPaths</code> only has these literal forms and <code>CookiePath</code> isn't specified, the session cookie is scoped to the paths they cover so
+ * browsers don't send it with any other request. <code>ExcludedPaths</code> can't narrow the cookie this way since a cookie path can only include requests,
+ * so place static resources outside the <code>OnlyPaths</code> prefixes to keep the session off of them.
  * </p> */
 public class SessionCookieFilter implements Filter
 {
@@ -228,41 +423,66 @@ public class SessionCookieFilter implements Filter
 
   static final String ERROR_HANDLER_CLASS_NAME = "SessionCookieErrorHandlerClassName";
 
+  static final String METRICS_CLASS_NAME = "SessionCookieMetricsClassName";
+
+  static final String REGISTER_MBEAN = "RegisterMBean";
+
   static final String SESSION_TIMEOUT_MINUTES = "SessionTimeoutMinutes";
 
   static final String INACTIVITY_TIMEOUT_SECONDS = "InactivityTimeoutSeconds";
 
+  static final String TOUCH_GRANULARITY_SECONDS = "TouchGranularitySeconds";
+
   static final String MAX_IN_MEMORY_SESSIONS = "MaxInMemorySessions";
 
   static final String PURGE_SESSION_CACHE_WITH_BACKGROUND_THREAD = "PurgeSessionCacheWithBackgroundThread";
 
+  static final String PURGE_SESSION_CACHE_WITH_VIRTUAL_THREAD = "PurgeSessionCacheWithVirtualThread";
+
   static final String MINIMUM_SECONDS_BETWEEN_SESSION_CACHE_PURGES = "MinimumSecondsBetweenSessionCachePurge";
 
   static final String SYMMETRIC_ENCRYPTION_ALGORITHM = "SymmetricEncryptionAlgorithm";
 
   static final String SYMMETRIC_ENCRYPTION_KEY = "SymmetricEncryptionKey";
 
+  static final String SYMMETRIC_ENCRYPTION_KEY_ID = "SymmetricEncryptionKeyId";
+
+  static final String PREVIOUS_SYMMETRIC_ENCRYPTION_KEYS = "PreviousSymmetricEncryptionKeys";
+
+  static final String KEY_RETIREMENT_SECONDS = "KeyRetirementSeconds";
+
   static final String COOKIE_DOMAIN = "CookieDomain";
 
+  static final String COOKIE_PATH = "CookiePath";
+
+  static final String COOKIE_SECURE = "CookieSecure";
+
+  static final String COOKIE_HTTP_ONLY = "CookieHttpOnly";
+
+  static final String COOKIE_SAME_SITE = "CookieSameSite";
+
   static final String COOKIE_NAME = "CookieName";
 
   static final String COOKIE_SIZE_WARNING = "CookieSizeWarning";
 
+  static final String PARAMETERS_RELOAD_SECONDS = "ParametersReloadSeconds";
+
   static final String ONLY_PATHS = "OnlyPaths";
 
   static final String EXCLUDED_PATHS = "ExcludedPaths";
 
-  private List<Pattern> includedPaths;
-
-  private List<Pattern> excludedPaths;
+  private RequestPathMatcher pathMatcher;
 
   private SessionCookieRequestHandler processor;
 
+  private SessionCookieManagement management;
+
   @Override
   public void init(FilterConfig filterConfig) throws ServletException
   {
     SessionCookieParameters parameters = null;
     SessionCookieErrorHandler errorHandler = null;
+    SessionCookieMetrics metrics = SessionCookieMetrics.NONE;
 
     String parametersClassName = filterConfig.getInitParameter(PARAMETERS_CLASS_NAME);
     if (hasContent(parametersClassName))
@@ -279,7 +499,7 @@ public class SessionCookieFilter implements Filter
     }
 
     String errorHandlerClassName = filterConfig.getInitParameter(ERROR_HANDLER_CLASS_NAME);
-    if (hasContent(parametersClassName))
+    if (hasContent(errorHandlerClassName))
     {
       try
       {
@@ -292,9 +512,23 @@ public class SessionCookieFilter implements Filter
       }
     }
 
+    String metricsClassName = filterConfig.getInitParameter(METRICS_CLASS_NAME);
+    if (hasContent(metricsClassName))
+    {
+      try
+      {
+        metrics = Class.forName(metricsClassName).asSubclass(SessionCookieMetrics.class).getDeclaredConstructor().newInstance();
+      }
+      catch (ReflectiveOperationException | ClassCastException e)
+      {
+        throw new ServletException(format("Invalid %s parameter %s.", METRICS_CLASS_NAME, metricsClassName), e);
+      }
+    }
+
+    SessionCookieDefaultParameters defaultParmaters = null;
     if (parameters == null)
     {
-      SessionCookieDefaultParameters defaultParmaters = new SessionCookieDefaultParameters();
+      defaultParmaters = new SessionCookieDefaultParameters();
       parameters = defaultParmaters;
 
       String sessionTimeoutMinutesParam = filterConfig.getInitParameter(SESSION_TIMEOUT_MINUTES);
@@ -309,6 +543,12 @@ public class SessionCookieFilter implements Filter
         defaultParmaters.setInactivityTimeoutSeconds(parseParameter(INACTIVITY_TIMEOUT_SECONDS, inactivityTimeoutSecondsParam));
       }
 
+      String touchGranularitySecondsParam = filterConfig.getInitParameter(TOUCH_GRANULARITY_SECONDS);
+      if (hasContent(touchGranularitySecondsParam))
+      {
+        defaultParmaters.setTouchGranularitySeconds(parseParameter(TOUCH_GRANULARITY_SECONDS, touchGranularitySecondsParam));
+      }
+
       String maxInMemorySessionsParam = filterConfig.getInitParameter(MAX_IN_MEMORY_SESSIONS);
       if (hasContent(maxInMemorySessionsParam))
       {
@@ -321,6 +561,12 @@ public class SessionCookieFilter implements Filter
         defaultParmaters.setPurgeSessionCacheWithBackgroundThread(Boolean.parseBoolean(useBackgroundThread));
       }
 
+      String useVirtualThread = filterConfig.getInitParameter(PURGE_SESSION_CACHE_WITH_VIRTUAL_THREAD);
+      if (hasContent(useVirtualThread))
+      {
+        defaultParmaters.setPurgeSessionCacheWithVirtualThread(Boolean.parseBoolean(useVirtualThread));
+      }
+
       String cleanPollSecondsParam = filterConfig.getInitParameter(MINIMUM_SECONDS_BETWEEN_SESSION_CACHE_PURGES);
       if (hasContent(cleanPollSecondsParam))
       {
@@ -346,12 +592,77 @@ public class SessionCookieFilter implements Filter
         }
       }
 
+      String encryptionKeyIdParameter = filterConfig.getInitParameter(SYMMETRIC_ENCRYPTION_KEY_ID);
+      if (hasContent(encryptionKeyIdParameter))
+      {
+        defaultParmaters.setSymmetricEncryptionKeyId(parseParameter(SYMMETRIC_ENCRYPTION_KEY_ID, encryptionKeyIdParameter));
+      }
+
+      String previousKeysParameter = filterConfig.getInitParameter(PREVIOUS_SYMMETRIC_ENCRYPTION_KEYS);
+      if (hasContent(previousKeysParameter))
+      {
+        Map<Integer, byte[]> previousKeys = new HashMap<>();
+        for (String previousKey : previousKeysParameter.split(","))
+        {
+          if (hasContent(previousKey))
+          {
+            int colonAt = previousKey.indexOf(':');
+            try
+            {
+              previousKeys.put(Integer.parseInt(previousKey.substring(0, colonAt).trim()), Base64.getDecoder().decode(previousKey.substring(colonAt + 1).trim()));
+            }
+            catch (Exception e)
+            {
+              throw new ServletException(format("Invalid %s parameter key %s, must be a key ID and Base64 encoded key separated by a colon.", PREVIOUS_SYMMETRIC_ENCRYPTION_KEYS, previousKey.trim()), e);
+            }
+          }
+        }
+        defaultParmaters.setPreviousSymmetricEncryptionKeys(previousKeys);
+      }
+
+      String keyRetirementSeconds = filterConfig.getInitParameter(KEY_RETIREMENT_SECONDS);
+      if (hasContent(keyRetirementSeconds))
+      {
+        defaultParmaters.setKeyRetirementSeconds(parseParameter(KEY_RETIREMENT_SECONDS, keyRetirementSeconds));
+      }
+
       String cookieDomain = filterConfig.getInitParameter(COOKIE_DOMAIN);
       if (hasContent(cookieDomain))
       {
         defaultParmaters.setCookieDomain(cookieDomain);
       }
 
+      String cookiePath = filterConfig.getInitParameter(COOKIE_PATH);
+      if (hasContent(cookiePath))
+      {
+        defaultParmaters.setCookiePath(cookiePath);
+      }
+
+      String cookieSecure = filterConfig.getInitParameter(COOKIE_SECURE);
+      if (hasContent(cookieSecure))
+      {
+        defaultParmaters.setCookieSecure(Boolean.parseBoolean(cookieSecure));
+      }
+
+      String cookieHttpOnly = filterConfig.getInitParameter(COOKIE_HTTP_ONLY);
+      if (hasContent(cookieHttpOnly))
+      {
+        defaultParmaters.setCookieHttpOnly(Boolean.parseBoolean(cookieHttpOnly));
+      }
+
+      String cookieSameSite = filterConfig.getInitParameter(COOKIE_SAME_SITE);
+      if (hasContent(cookieSameSite))
+      {
+        try
+        {
+          defaultParmaters.setCookieSameSite(SetCookieHeader.sameSite(cookieSameSite.trim()));
+        }
+        catch (IllegalArgumentException e)
+        {
+          throw new ServletException(e.getMessage(), e);
+        }
+      }
+
       String cookieName = filterConfig.getInitParameter(COOKIE_NAME);
       if (hasContent(cookieName))
       {
@@ -363,11 +674,20 @@ public class SessionCookieFilter implements Filter
       {
         defaultParmaters.setCookieSizeWarning(parseParameter(COOKIE_SIZE_WARNING, cookieSizeWarning));
       }
+
+      String parametersReloadSeconds = filterConfig.getInitParameter(PARAMETERS_RELOAD_SECONDS);
+      if (hasContent(parametersReloadSeconds))
+      {
+        defaultParmaters.setParametersReloadSeconds(parseParameter(PARAMETERS_RELOAD_SECONDS, parametersReloadSeconds));
+      }
     }
 
     try
     {
-      EncodedEncryptedCookieValue.encodeAndEncrypt("A", "B", parameters.getSymmetricEncryptionKey(), parameters.getSymmetricEncryptionAlgorithm());
+      byte[] key = parameters.getSymmetricEncryptionKey();
+      KeyedCiphers ciphers = new KeyedCiphers(key, parameters.getSymmetricEncryptionAlgorithm(), Math.max(parameters.getSymmetricEncryptionKeyId(), KeyedCiphers.NO_KEY_ID),
+          parameters.createCryptoEngine(key));
+      EncodedEncryptedCookieValue.decodeAndDecrypt(EncodedEncryptedCookieValue.encodeAndEncrypt(new byte[0], new byte[0], ciphers), ciphers);
     }
     catch (Exception e)
     {
@@ -379,65 +699,71 @@ public class SessionCookieFilter implements Filter
       errorHandler = new SessionCookieDefaultErrorHandler();
     }
 
-    includedPaths = null;
+    PathMatcher includedPaths = null;
     String includedPathsParams = filterConfig.getInitParameter(ONLY_PATHS);
     if (hasContent(includedPathsParams))
     {
-      includedPaths = new ArrayList<>();
-      String[] paths = includedPathsParams.split(",");
-      for (String path : paths)
+      List<String> includedPatterns = parsePatterns("included", includedPathsParams);
+      includedPaths = new PathMatcher(includedPatterns);
+
+      if (defaultParmaters != null && !hasContent(filterConfig.getInitParameter(COOKIE_PATH)))
       {
-        if (hasContent(path))
-        {
-          try
-          {
-            includedPaths.add(Pattern.compile(path));
-          }
-          catch (Exception e)
-          {
-            throw new ServletException(format("Invalid included paths pattern %s for parameter %s.", path, includedPathsParams), e);
-          }
-        }
+        defaultParmaters.setCookiePath(cookiePaths(filterConfig.getServletContext().getContextPath(), includedPatterns));
       }
     }
 
-    excludedPaths = null;
+    PathMatcher excludedPaths = null;
     String excludedPathsParams = filterConfig.getInitParameter(EXCLUDED_PATHS);
-    if (hasContent(includedPathsParams))
+    if (hasContent(excludedPathsParams))
     {
-      excludedPaths = new ArrayList<>();
-      String[] paths = excludedPathsParams.split(",");
-      for (String path : paths)
+      excludedPaths = new PathMatcher(parsePatterns("excluded", excludedPathsParams));
+    }
+    pathMatcher = new RequestPathMatcher(includedPaths, excludedPaths);
+
+    String registerMBean = filterConfig.getInitParameter(REGISTER_MBEAN);
+    SessionCookieHistogramMetrics managementMetrics = null;
+    if (!hasContent(registerMBean) || Boolean.parseBoolean(registerMBean))
+    {
+      if (metrics instanceof SessionCookieHistogramMetrics)
       {
-        if (hasContent(path))
-        {
-          try
-          {
-            excludedPaths.add(Pattern.compile(path));
-          }
-          catch (Exception e)
-          {
-            throw new ServletException(format("Invalid excluded paths pattern %s for parameter %s.", path, excludedPathsParams), e);
-          }
-        }
+        managementMetrics = (SessionCookieHistogramMetrics) metrics;
+      }
+      else
+      {
+        managementMetrics = new SessionCookieHistogramMetrics();
+        metrics = metrics == SessionCookieMetrics.NONE ? managementMetrics : new CompositeMetrics(metrics, managementMetrics);
       }
     }
 
     try
     {
-      processor = new SessionCookieRequestHandler(parameters, errorHandler);
+      processor = new SessionCookieRequestHandler(parameters, errorHandler, metrics, null);
     }
-    catch (GeneralSecurityException e)
+    catch (GeneralSecurityException | IllegalArgumentException e)
     {
       throw new ServletException(e);
     }
+
+    management = null;
+    if (managementMetrics != null)
+    {
+      management = new SessionCookieManagement(parameters, processor, managementMetrics);
+      try
+      {
+        management.register(filterConfig.getServletContext() == null ? null : filterConfig.getServletContext().getContextPath(), filterConfig.getFilterName());
+      }
+      catch (JMException | SecurityException e)
+      {
+        management = null;
+      }
+    }
   }
 
   @Override
   public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException
   {
     HttpServletRequest httpRequest = (HttpServletRequest) servletRequest;
-    if (wrapRequest(httpRequest.getContextPath(), httpRequest.getRequestURI(), includedPaths, excludedPaths))
+    if (pathMatcher.wrap(httpRequest.getContextPath(), httpRequest.getRequestURI()))
     {
       processor.handle(httpRequest, (HttpServletResponse) servletResponse, new SessionCookieFilterRequestChain(filterChain));
     }
@@ -449,7 +775,18 @@ public class SessionCookieFilter implements Filter
 
   @Override
   public void destroy()
-  {}
+  {
+    if (management != null)
+    {
+      management.unregister();
+      management = null;
+    }
+
+    if (processor != null)
+    {
+      processor.destroy();
+    }
+  }
 
   static int parseParameter(String parameterName, String parameterValue) throws ServletException
   {
@@ -463,44 +800,99 @@ public class SessionCookieFilter implements Filter
     }
   }
 
-  static boolean wrapRequest(String contextPath, String requestPath, List<Pattern> onlyPatterns, List<Pattern> exceptPatterns)
+  /**
+   * Splits a comma delimited list of patterns, checking that each is a valid regular expression.
+   */
+  static List<String> parsePatterns(String name, String patternsParameter) throws ServletException
   {
-    if (requestPath.startsWith(contextPath))
+    List<String> patterns = new ArrayList<>();
+    for (String pattern : patternsParameter.split(","))
     {
-      requestPath = requestPath.substring(contextPath.length(), requestPath.length());
+      if (hasContent(pattern))
+      {
+        try
+        {
+          Pattern.compile(pattern);
+        }
+        catch (Exception e)
+        {
+          throw new ServletException(format("Invalid %s paths pattern %s for parameter %s.", name, pattern, patternsParameter), e);
+        }
+        patterns.add(pattern);
+      }
     }
+    return patterns;
+  }
 
-    if (onlyPatterns != null || exceptPatterns != null)
+  /**
+   * @return The comma delimited cookie paths that cover every request path the given <code>OnlyPaths</code> patterns match or null if any pattern isn't a
+   * literal path or a literal prefix followed by <code>.*</code>.
+   */
+  static String cookiePaths(String contextPath, List<String> onlyPatterns)
+  {
+    Set<String> paths = new LinkedHashSet<>();
+    for (String pattern : onlyPatterns)
     {
-      if (onlyPatterns != null)
+      String path = PathMatcher.literal(pattern, 0, pattern.length());
+      if (path == null && pattern.endsWith(".*") && (path = PathMatcher.literal(pattern, 0, pattern.length() - 2)) != null)
       {
-        boolean matchFound = false;
-        for (Pattern onlyPattern : onlyPatterns)
-        {
-          if (onlyPattern.matcher(requestPath).matches())
-          {
-            matchFound = true;
-            break;
-          }
-        }
+        /*
+         * A cookie path only matches whole path segments so a prefix like /api matching /apis as well is cut back to its last segment.
+         */
+        path = path.substring(0, path.lastIndexOf('/') + 1);
+      }
+
+      if (path == null || (!path.isEmpty() && path.charAt(0) != '/'))
+      {
+        return null;
+      }
+
+      path = contextPath + path;
+      if (path.endsWith("/") && path.length() > 1)
+      {
+        path = path.substring(0, path.length() - 1);
+      }
+      paths.add(path.isEmpty() ? "/" : path);
+    }
 
-        if (!matchFound)
+    StringBuilder cookiePaths = new StringBuilder();
+    for (String path : paths)
+    {
+      boolean covered = false;
+      for (String other : paths)
+      {
+        if (!other.equals(path) && path.startsWith(other) && (other.equals("/") || path.charAt(other.length()) == '/'))
         {
-          return false;
+          covered = true;
+          break;
         }
       }
 
-      if (exceptPatterns != null)
+      if (!covered)
       {
-        for (Pattern exceptPattern : exceptPatterns)
+        if (cookiePaths.length() > 0)
         {
-          if (exceptPattern.matcher(requestPath).matches())
-          {
-            return false;
-          }
+          cookiePaths.append(',');
         }
+        cookiePaths.append(path);
       }
     }
+    return cookiePaths.length() == 0 ? null : cookiePaths.toString();
+  }
+
+  static boolean wrapRequest(String contextPath, String requestPath, PathMatcher onlyPatterns, PathMatcher exceptPatterns)
+  {
+    int offset = requestPath.startsWith(contextPath) ? contextPath.length() : 0;
+
+    if (onlyPatterns != null && !onlyPatterns.matches(requestPath, offset))
+    {
+      return false;
+    }
+
+    if (exceptPatterns != null && exceptPatterns.matches(requestPath, offset))
+    {
+      return false;
+    }
 
     return true;
   }
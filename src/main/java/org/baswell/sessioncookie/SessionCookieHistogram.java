@@ -0,0 +1,118 @@
+package org.baswell.sessioncookie;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values. Values are counted in log-linear buckets, sixteen per power of two, so any value reported back is
+ * within about 6% of a recorded value. Recording a value is a couple of atomic increments with no allocation.
+ */
+public class SessionCookieHistogram
+{
+  private static final int SUB_BUCKET_BITS = 4;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder sum = new LongAdder();
+
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Records a value. Negative values are recorded as zero.
+   */
+  public void record(long value)
+  {
+    value = Math.max(0, value);
+    counts.incrementAndGet(bucketOf(value));
+    count.increment();
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  /**
+   * @return The number of values recorded.
+   */
+  public long getCount()
+  {
+    return count.sum();
+  }
+
+  /**
+   * @return The mean of the recorded values or zero if none have been recorded.
+   */
+  public double getMean()
+  {
+    long count = getCount();
+    return count == 0 ? 0 : (double) sum.sum() / count;
+  }
+
+  /**
+   * @return The largest value recorded.
+   */
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  /**
+   * @param percentile The percentile from 0 to 100, like 99.9.
+   * @return The value that the given percentage of recorded values are equal to or less than, or zero if none have been recorded.
+   */
+  public long getValueAtPercentile(double percentile)
+  {
+    long[] snapshot = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < snapshot.length; i++)
+    {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+
+    if (total == 0)
+    {
+      return 0;
+    }
+
+    long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++)
+    {
+      seen += snapshot[i];
+      if (seen >= target)
+      {
+        return Math.min(highestValueOf(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Values below sixteen each have their own bucket. Larger values are bucketed by their highest bit and the four bits below it.
+   */
+  static int bucketOf(long value)
+  {
+    if (value < SUB_BUCKETS)
+    {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  static long highestValueOf(int bucket)
+  {
+    if (bucket < SUB_BUCKETS)
+    {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
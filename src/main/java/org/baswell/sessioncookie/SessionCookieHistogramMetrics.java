@@ -0,0 +1,164 @@
+package org.baswell.sessioncookie;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Built-in {@link SessionCookieMetrics} that keeps counters and a {@link SessionCookieHistogram} for each timed stage of the pipeline. Latencies are in
+ * nanoseconds. Recording never locks so this can be left on in production.
+ */
+public class SessionCookieHistogramMetrics implements SessionCookieMetrics
+{
+  private final SessionCookieHistogram decryptNanos = new SessionCookieHistogram();
+
+  private final SessionCookieHistogram decodeNanos = new SessionCookieHistogram();
+
+  private final SessionCookieHistogram encodeNanos = new SessionCookieHistogram();
+
+  private final SessionCookieHistogram encryptNanos = new SessionCookieHistogram();
+
+  private final SessionCookieHistogram purgeNanos = new SessionCookieHistogram();
+
+  private final SessionCookieHistogram cookieSizes = new SessionCookieHistogram();
+
+  private final LongAdder cacheHits = new LongAdder();
+
+  private final LongAdder cacheMisses = new LongAdder();
+
+  private final LongAdder cacheEvictions = new LongAdder();
+
+  private final LongAdder purgedSessions = new LongAdder();
+
+  private final LongAdder decryptFailures = new LongAdder();
+
+  private final LongAdder decodeFailures = new LongAdder();
+
+  @Override
+  public void onDecrypt(long nanos)
+  {
+    decryptNanos.record(nanos);
+  }
+
+  @Override
+  public void onDecode(long nanos)
+  {
+    decodeNanos.record(nanos);
+  }
+
+  @Override
+  public void onEncode(long nanos)
+  {
+    encodeNanos.record(nanos);
+  }
+
+  @Override
+  public void onEncrypt(long nanos)
+  {
+    encryptNanos.record(nanos);
+  }
+
+  @Override
+  public void onCookieSize(int bytes)
+  {
+    cookieSizes.record(bytes);
+  }
+
+  @Override
+  public void onCacheHit()
+  {
+    cacheHits.increment();
+  }
+
+  @Override
+  public void onCacheMiss()
+  {
+    cacheMisses.increment();
+  }
+
+  @Override
+  public void onCacheEviction()
+  {
+    cacheEvictions.increment();
+  }
+
+  @Override
+  public void onPurge(long nanos, int sessionsRemoved)
+  {
+    purgeNanos.record(nanos);
+    purgedSessions.add(sessionsRemoved);
+  }
+
+  @Override
+  public void onDecryptFailure()
+  {
+    decryptFailures.increment();
+  }
+
+  @Override
+  public void onDecodeFailure()
+  {
+    decodeFailures.increment();
+  }
+
+  public SessionCookieHistogram getDecryptNanos()
+  {
+    return decryptNanos;
+  }
+
+  public SessionCookieHistogram getDecodeNanos()
+  {
+    return decodeNanos;
+  }
+
+  public SessionCookieHistogram getEncodeNanos()
+  {
+    return encodeNanos;
+  }
+
+  public SessionCookieHistogram getEncryptNanos()
+  {
+    return encryptNanos;
+  }
+
+  public SessionCookieHistogram getPurgeNanos()
+  {
+    return purgeNanos;
+  }
+
+  public SessionCookieHistogram getCookieSizes()
+  {
+    return cookieSizes;
+  }
+
+  public long getCacheHits()
+  {
+    return cacheHits.sum();
+  }
+
+  public long getCacheMisses()
+  {
+    return cacheMisses.sum();
+  }
+
+  public long getCacheEvictions()
+  {
+    return cacheEvictions.sum();
+  }
+
+  /**
+   * @return The number of expired sessions removed by purges.
+   */
+  public long getPurgedSessions()
+  {
+    return purgedSessions.sum();
+  }
+
+  public long getDecryptFailures()
+  {
+    return decryptFailures.sum();
+  }
+
+  public long getDecodeFailures()
+  {
+    return decodeFailures.sum();
+  }
+}
@@ -0,0 +1,116 @@
+package org.baswell.sessioncookie;
+
+/**
+ * Management interface registered by {@link SessionCookieFilter} for each filter instance under
+ * <code>org.baswell.sessioncookie:type=SessionCookieFilter,context=&lt;context path&gt;,name=&lt;filter name&gt;</code>.
+ *
+ * The statistics are counted from when the filter was initialized. The tuning attributes change the running filter immediately but they can only be set when
+ * the filter is configured with {@link SessionCookieDefaultParameters}. With a custom <code>SessionCookieParametersClassName</code> they are read only and
+ * setting them throws {@link UnsupportedOperationException}. Every change reloads the parameters immediately.
+ */
+public interface SessionCookieMXBean
+{
+  /**
+   * @return The number of sessions currently in the session cache.
+   */
+  int getCacheSize();
+
+  /**
+   * @return The fraction, from 0 to 1, of received session cookies that were matched to a cached session without being decrypted.
+   */
+  double getCacheHitRatio();
+
+  long getCacheHits();
+
+  long getCacheMisses();
+
+  /**
+   * @return The number of sessions evicted from a full session cache.
+   */
+  long getCacheEvictions();
+
+  /**
+   * @return The number of times the session cache has been purged of expired sessions.
+   */
+  long getPurgeCount();
+
+  /**
+   * @return The number of expired sessions removed by purges.
+   */
+  long getPurgedSessions();
+
+  double getPurgeMeanMillis();
+
+  double getPurgeMaxMillis();
+
+  /**
+   * @return The average size in bytes of the session cookie values sent to clients.
+   */
+  double getAverageCookieSize();
+
+  long getMaxCookieSize();
+
+  /**
+   * @return The number of received session cookies that could not be decrypted.
+   */
+  long getDecryptFailures();
+
+  /**
+   * @return The number of received session cookies, or session attributes, that could not be decoded.
+   */
+  long getDecodeFailures();
+
+  /**
+   * @see SessionCookieParameters#getMaxInMemorySessions()
+   */
+  int getMaxInMemorySessions();
+
+  /**
+   * Resizes the session cache. Shrinking the cache evicts the least frequently used sessions as new sessions are added. Setting this to zero turns the cache
+   * off and empties it.
+   *
+   * @see SessionCookieParameters#getMaxInMemorySessions()
+   */
+  void setMaxInMemorySessions(int maxInMemorySessions);
+
+  /**
+   * @see SessionCookieParameters#getMinimumSecondsBetweenSessionCachePurges()
+   */
+  int getMinimumSecondsBetweenSessionCachePurges();
+
+  /**
+   * Changes the purge interval. The purge already scheduled runs at its current time, later purges use the new interval.
+   *
+   * @see SessionCookieParameters#getMinimumSecondsBetweenSessionCachePurges()
+   */
+  void setMinimumSecondsBetweenSessionCachePurges(int minimumSecondsBetweenSessionCachePurges);
+
+  /**
+   * @see SessionCookieParameters#getTouchGranularitySeconds()
+   */
+  int getTouchGranularitySeconds();
+
+  /**
+   * @see SessionCookieParameters#getTouchGranularitySeconds()
+   */
+  void setTouchGranularitySeconds(int touchGranularitySeconds);
+
+  /**
+   * @see SessionCookieParameters#getInactivityTimeoutSeconds()
+   */
+  int getInactivityTimeoutSeconds();
+
+  /**
+   * Changes the inactivity timeout given to new sessions. Existing sessions keep the timeout they were created with.
+   *
+   * @see SessionCookieParameters#getInactivityTimeoutSeconds()
+   */
+  void setInactivityTimeoutSeconds(int inactivityTimeoutSeconds);
+
+  /**
+   * Reloads the parameters now instead of waiting for the next scheduled reload.
+   *
+   * @see SessionCookieRequestHandler#reloadParameters()
+   */
+  void reloadParameters();
+}
@@ -0,0 +1,242 @@
+package org.baswell.sessioncookie;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+
+import static java.lang.String.format;
+
+/**
+ * The {@link SessionCookieMXBean} of one {@link SessionCookieRequestHandler}. Statistics come from the handler's cache and a {@link SessionCookieHistogramMetrics}
+ * the handler reports to.
+ */
+class SessionCookieManagement implements SessionCookieMXBean
+{
+  static final String DOMAIN = "org.baswell.sessioncookie";
+
+  private final SessionCookieParameters parameters;
+
+  private final SessionCookieRequestHandler handler;
+
+  private final SessionCookieHistogramMetrics metrics;
+
+  private ObjectName objectName;
+
+  SessionCookieManagement(SessionCookieParameters parameters, SessionCookieRequestHandler handler, SessionCookieHistogramMetrics metrics)
+  {
+    this.parameters = parameters;
+    this.handler = handler;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Registers with the platform MBean server. If another filter is already registered with the same context path and filter name this one is registered with
+   * an added instance key.
+   */
+  synchronized void register(String contextPath, String filterName) throws JMException
+  {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    String name = format("%s:type=SessionCookieFilter,context=%s,name=%s", DOMAIN, ObjectName.quote(contextPath == null ? "" : contextPath), ObjectName.quote(filterName == null ? "" : filterName));
+    ObjectName objectName = new ObjectName(name);
+    for (int instance = 2; ; instance++)
+    {
+      try
+      {
+        server.registerMBean(this, objectName);
+        this.objectName = objectName;
+        return;
+      }
+      catch (InstanceAlreadyExistsException e)
+      {
+        objectName = new ObjectName(name + ",instance=" + instance);
+      }
+    }
+  }
+
+  synchronized void unregister()
+  {
+    if (objectName != null)
+    {
+      try
+      {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      }
+      catch (JMException e)
+      {}
+      objectName = null;
+    }
+  }
+
+  synchronized ObjectName getObjectName()
+  {
+    return objectName;
+  }
+
+  @Override
+  public int getCacheSize()
+  {
+    return handler.getCacheSize();
+  }
+
+  @Override
+  public double getCacheHitRatio()
+  {
+    long hits = metrics.getCacheHits();
+    long total = hits + metrics.getCacheMisses();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  @Override
+  public long getCacheHits()
+  {
+    return metrics.getCacheHits();
+  }
+
+  @Override
+  public long getCacheMisses()
+  {
+    return metrics.getCacheMisses();
+  }
+
+  @Override
+  public long getCacheEvictions()
+  {
+    return metrics.getCacheEvictions();
+  }
+
+  @Override
+  public long getPurgeCount()
+  {
+    return metrics.getPurgeNanos().getCount();
+  }
+
+  @Override
+  public long getPurgedSessions()
+  {
+    return metrics.getPurgedSessions();
+  }
+
+  @Override
+  public double getPurgeMeanMillis()
+  {
+    return metrics.getPurgeNanos().getMean() / 1000000.0;
+  }
+
+  @Override
+  public double getPurgeMaxMillis()
+  {
+    return metrics.getPurgeNanos().getMax() / 1000000.0;
+  }
+
+  @Override
+  public double getAverageCookieSize()
+  {
+    return metrics.getCookieSizes().getMean();
+  }
+
+  @Override
+  public long getMaxCookieSize()
+  {
+    return metrics.getCookieSizes().getMax();
+  }
+
+  @Override
+  public long getDecryptFailures()
+  {
+    return metrics.getDecryptFailures();
+  }
+
+  @Override
+  public long getDecodeFailures()
+  {
+    return metrics.getDecodeFailures();
+  }
+
+  @Override
+  public int getMaxInMemorySessions()
+  {
+    return parameters.getMaxInMemorySessions();
+  }
+
+  @Override
+  public void setMaxInMemorySessions(int maxInMemorySessions)
+  {
+    if (maxInMemorySessions < 0)
+    {
+      throw new IllegalArgumentException("MaxInMemorySessions cannot be negative.");
+    }
+    defaultParameters().setMaxInMemorySessions(maxInMemorySessions);
+    reloadParameters();
+  }
+
+  @Override
+  public int getMinimumSecondsBetweenSessionCachePurges()
+  {
+    return parameters.getMinimumSecondsBetweenSessionCachePurges();
+  }
+
+  @Override
+  public void setMinimumSecondsBetweenSessionCachePurges(int minimumSecondsBetweenSessionCachePurges)
+  {
+    if (minimumSecondsBetweenSessionCachePurges < 1)
+    {
+      throw new IllegalArgumentException("MinimumSecondsBetweenSessionCachePurges must be at least one.");
+    }
+    defaultParameters().setMinimumSecondsBetweenSessionCachePurges(minimumSecondsBetweenSessionCachePurges);
+    reloadParameters();
+  }
+
+  @Override
+  public int getTouchGranularitySeconds()
+  {
+    return parameters.getTouchGranularitySeconds();
+  }
+
+  @Override
+  public void setTouchGranularitySeconds(int touchGranularitySeconds)
+  {
+    defaultParameters().setTouchGranularitySeconds(touchGranularitySeconds);
+    reloadParameters();
+  }
+
+  @Override
+  public int getInactivityTimeoutSeconds()
+  {
+    return parameters.getInactivityTimeoutSeconds();
+  }
+
+  @Override
+  public void setInactivityTimeoutSeconds(int inactivityTimeoutSeconds)
+  {
+    defaultParameters().setInactivityTimeoutSeconds(inactivityTimeoutSeconds);
+    reloadParameters();
+  }
+
+  @Override
+  public void reloadParameters()
+  {
+    try
+    {
+      handler.reloadParameters();
+    }
+    catch (GeneralSecurityException e)
+    {
+      throw new IllegalStateException(format("Unable to reload parameters: %s", e.getMessage()));
+    }
+  }
+
+  private SessionCookieDefaultParameters defaultParameters()
+  {
+    if (parameters instanceof SessionCookieDefaultParameters)
+    {
+      return (SessionCookieDefaultParameters) parameters;
+    }
+    else
+    {
+      throw new UnsupportedOperationException(format("Parameters of %s cannot be changed at runtime.", parameters.getClass().getName()));
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package org.baswell.sessioncookie;
+
+/**
+ * Receives measurements from each stage of the session cookie pipeline. Every method does nothing by default so implementations only need to override the
+ * measurements they're interested in. Methods are called on HTTP request threads (and the cache purge thread) so implementations must be thread safe and fast.
+ *
+ * @see SessionCookieHistogramMetrics
+ */
+public interface SessionCookieMetrics
+{
+  /**
+   * Metrics that ignores all measurements.
+   */
+  SessionCookieMetrics NONE = new SessionCookieMetrics() {};
+
+  /**
+   * Called after a received session cookie was decrypted.
+   * @param nanos The time taken to decode and decrypt the cookie value
+   */
+  default void onDecrypt(long nanos)
+  {}
+
+  /**
+   * Called after the session data of a received cookie was decoded. Session data is decoded when an attribute is first accessed.
+   * @param nanos The time taken to decode the session data
+   */
+  default void onDecode(long nanos)
+  {}
+
+  /**
+   * Called after the session data was encoded to be sent back to the client.
+   * @param nanos The time taken to encode the session data
+   */
+  default void onEncode(long nanos)
+  {}
+
+  /**
+   * Called after a session cookie value was encrypted.
+   * @param nanos The time taken to encrypt and encode the cookie value
+   */
+  default void onEncrypt(long nanos)
+  {}
+
+  /**
+   * Called with the size of each session cookie value sent to the client.
+   * @param bytes The size of the cookie value
+   */
+  default void onCookieSize(int bytes)
+  {}
+
+  /**
+   * Called when a received session cookie was matched to a cached session without being decrypted.
+   */
+  default void onCacheHit()
+  {}
+
+  /**
+   * Called when the session cache is in use but a received session cookie had to be decrypted.
+   */
+  default void onCacheMiss()
+  {}
+
+  /**
+   * Called when a session is evicted from a full session cache.
+   */
+  default void onCacheEviction()
+  {}
+
+  /**
+   * Called after the session cache was purged of expired sessions.
+   * @param nanos The time taken to purge the cache
+   * @param sessionsRemoved The number of expired sessions removed
+   */
+  default void onPurge(long nanos, int sessionsRemoved)
+  {}
+
+  /**
+   * Called when a received session cookie could not be decrypted.
+   */
+  default void onDecryptFailure()
+  {}
+
+  /**
+   * Called when a received session cookie was decrypted but it or one of its attributes could not be decoded.
+   */
+  default void onDecodeFailure()
+  {}
+}
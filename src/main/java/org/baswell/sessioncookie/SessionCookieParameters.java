@@ -2,10 +2,13 @@ package org.baswell.sessioncookie;
 
 import javax.servlet.http.HttpSession;
 import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.Map;
 
 /**
- * All parameters used by SessionCookie. These parameters are not cached and will be called on HTTP request threads. It's important that each of these methods
- * return immediately (no IO blocking) or request performance will be impacted.
+ * All parameters used by SessionCookie. The parameters are read into an immutable snapshot when the {@link SessionCookieRequestHandler} is created and read again
+ * every {@link #getParametersReloadSeconds()} seconds, or when {@link SessionCookieRequestHandler#reloadParameters()} is called. The snapshot is reloaded on an
+ * HTTP request thread so these methods should still return quickly, but they are no longer called on every request.
  */
 public interface SessionCookieParameters
 {
@@ -19,6 +22,11 @@ public interface SessionCookieParameters
    */
   int DEFAULT_INACTIVITY_TIMEOUT_SECONDS = -1;
 
+  /**
+   * <code>0</code>
+   */
+  int DEFAULT_TOUCH_GRANULARITY_SECONDS = 0;
+
   /**
    * <code>-1</code>
    */
@@ -29,6 +37,11 @@ public interface SessionCookieParameters
    */
   boolean DEFAULT_PURGE_SESSION_CACHE_WITH_BACKGROUND_THREAD = false;
 
+  /**
+   * <code>false</code>
+   */
+  boolean DEFAULT_PURGE_SESSION_CACHE_WITH_VIRTUAL_THREAD = false;
+
   /**
    * <code>15</code>
    */
@@ -39,11 +52,59 @@ public interface SessionCookieParameters
    */
   String DEFAULT_SYMMETRIC_ENCRYPTION_ALGORITHM = "AES";
 
+  /**
+   * <code>-1</code>, cookies don't carry a key ID.
+   */
+  int DEFAULT_SYMMETRIC_ENCRYPTION_KEY_ID = -1;
+
+  /**
+   * <code>86400</code> (one day)
+   */
+  int DEFAULT_KEY_RETIREMENT_SECONDS = 24 * 60 * 60;
+
+  /**
+   * <code>AES/GCM/NoPadding</code>, a {@link #getSymmetricEncryptionAlgorithm()} that encrypts and authenticates session cookies so a changed cookie is rejected
+   * before it's decoded. AES-GCM is accelerated by the AES-NI and carry-less multiply instructions on most server CPUs.
+   */
+  String AES_GCM_ALGORITHM = "AES/GCM/NoPadding";
+
+  /**
+   * <code>ChaCha20-Poly1305</code>, a {@link #getSymmetricEncryptionAlgorithm()} that encrypts and authenticates session cookies. This is faster than
+   * {@link #AES_GCM_ALGORITHM} on CPUs without AES instructions. Requires Java 11 or later.
+   */
+  String CHACHA20_POLY1305_ALGORITHM = "ChaCha20-Poly1305";
+
+  /**
+   * <code>HmacSHA256</code>, a {@link #getSymmetricEncryptionAlgorithm()} that only signs session cookies. Use this when sessions don't hold anything that
+   * must be kept from the client and only tampering needs to be detected. Any other <code>Hmac</code> algorithm may also be used.
+   */
+  String HMAC_SHA256_ALGORITHM = "HmacSHA256";
+
   /**
    * <code>null</code>
    */
   String DEFAULT_COOKIE_DOMAIN = null;
 
+  /**
+   * <code>null</code>
+   */
+  String DEFAULT_COOKIE_PATH = null;
+
+  /**
+   * <code>false</code>
+   */
+  boolean DEFAULT_COOKIE_SECURE = false;
+
+  /**
+   * <code>false</code>
+   */
+  boolean DEFAULT_COOKIE_HTTP_ONLY = false;
+
+  /**
+   * <code>null</code>
+   */
+  String DEFAULT_COOKIE_SAME_SITE = null;
+
   /**
    * <code>org.baswell.sessioncookie</code>
    */
@@ -54,6 +115,10 @@ public interface SessionCookieParameters
    */
   int DEFAULT_COOKIE_SIZE_WARNING = 1024 * 4;
 
+  /**
+   * <code>60</code>
+   */
+  int DEFAULT_PARAMETERS_RELOAD_SECONDS = 60;
 
   /**
    * The time, in minutes, from creation time that sessions are allowed to remain active. A negative time indicates the session should never timeout.
@@ -74,7 +139,20 @@ public interface SessionCookieParameters
   }
 
   /**
-   * The maximum number of sessions that are cached in memory. A zero or negative value indicates that no sessions are cached.
+   * The minimum time, in seconds, since a session was last touched before its cookie is reissued just to update the last accessed time. This is only used when
+   * {@link #getInactivityTimeoutSeconds()} is greater than zero. Sessions that have changed are always reissued. A zero value reissues the session cookie on every request.
+   * A negative value uses 10% of the session's inactivity timeout. Since the last accessed time is only updated when the cookie is reissued, a session can expire up to
+   * this many seconds sooner than its inactivity timeout.
+   * @return {@link SessionCookieParameters#DEFAULT_TOUCH_GRANULARITY_SECONDS} by default
+   */
+  default int getTouchGranularitySeconds()
+  {
+    return DEFAULT_TOUCH_GRANULARITY_SECONDS;
+  }
+
+  /**
+   * The maximum number of sessions that are cached in memory. A zero or negative value indicates that no sessions are cached. When the cache is full,
+   * caching a session evicts whichever session has been used least often recently.
    * @return {@link SessionCookieParameters#DEFAULT_MAX_IN_MEMORY_SESSIONS} by default
    */
   default int getMaxInMemorySessions()
@@ -92,7 +170,17 @@ public interface SessionCookieParameters
   }
 
   /**
-   * The minimum number of seconds between session cache purges.
+   * Indicates if the background thread used to purge the session cache should be a virtual thread. This is ignored if the JVM doesn't support virtual threads.
+   * @return {@link SessionCookieParameters#DEFAULT_PURGE_SESSION_CACHE_WITH_VIRTUAL_THREAD} by default
+   */
+  default boolean getPurgeSessionCacheWithVirtualThread()
+  {
+    return DEFAULT_PURGE_SESSION_CACHE_WITH_VIRTUAL_THREAD;
+  }
+
+  /**
+   * The number of seconds between session cache purges when the cache is moderately full. Purges happen up to four times as often when the cache is nearly full
+   * and four times less often when it's empty.
    * @return {@link SessionCookieParameters#DEFAULT_MINIMUM_SECONDS_BETWEEN_SESSION_CACHE_PURGES} by default
    */
   default int getMinimumSecondsBetweenSessionCachePurges()
@@ -101,7 +189,8 @@ public interface SessionCookieParameters
   }
 
   /**
-   * The symmetric encryption algorithm used to encrypt and decrypt the session cookie.
+   * The symmetric encryption algorithm used to encrypt and decrypt the session cookie. If this is a MAC algorithm, like {@link #HMAC_SHA256_ALGORITHM}, the session
+   * cookie is only signed so its contents can be read, but not changed, by the client.
    * @return {@link SessionCookieParameters#DEFAULT_SYMMETRIC_ENCRYPTION_ALGORITHM} by default
    */
   default String getSymmetricEncryptionAlgorithm()
@@ -116,6 +205,50 @@ public interface SessionCookieParameters
    */
   byte[] getSymmetricEncryptionKey() throws GeneralSecurityException;
 
+  /**
+   * The ID, from 0 to 255, of {@link #getSymmetricEncryptionKey()}. The ID is sent in the clear with each session cookie so the key that opens it is found with
+   * a single lookup, which lets the key be rotated without logging out every user. To rotate, change the key and its ID together. The key being replaced keeps
+   * opening the cookies sealed with it for {@link #getKeyRetirementSeconds()}. If this is negative cookies don't carry a key ID and only the current key opens
+   * them.
+   * @return {@link SessionCookieParameters#DEFAULT_SYMMETRIC_ENCRYPTION_KEY_ID} by default
+   */
+  default int getSymmetricEncryptionKeyId()
+  {
+    return DEFAULT_SYMMETRIC_ENCRYPTION_KEY_ID;
+  }
+
+  /**
+   * Keys, by their ID, that still open session cookies but are no longer used to seal them. Unlike the keys that retire after {@link #getKeyRetirementSeconds()},
+   * these are kept until they are removed from this map, and they survive restarts. Use this when a key must be rotated across several servers or the retirement
+   * schedule is managed outside of SessionCookie.
+   * @return An empty map by default
+   */
+  default Map<Integer, byte[]> getPreviousSymmetricEncryptionKeys()
+  {
+    return Collections.emptyMap();
+  }
+
+  /**
+   * The number of seconds a key keeps opening session cookies after it is replaced by a key with a different {@link #getSymmetricEncryptionKeyId()}. Sessions
+   * still sealed with a retired key are dropped. A negative value never retires replaced keys.
+   * @return {@link SessionCookieParameters#DEFAULT_KEY_RETIREMENT_SECONDS} by default
+   */
+  default int getKeyRetirementSeconds()
+  {
+    return DEFAULT_KEY_RETIREMENT_SECONDS;
+  }
+
+  /**
+   * Creates the engine that seals and opens session cookies with the given key. Override this to use an engine other than the built-in ones.
+   * @param key The current {@link #getSymmetricEncryptionKey()}
+   * @return {@link SessionCookieCryptoEngine#forAlgorithm(String, byte[])} for {@link #getSymmetricEncryptionAlgorithm()} by default
+   * @throws GeneralSecurityException If the engine cannot be created for the key.
+   */
+  default SessionCookieCryptoEngine createCryptoEngine(byte[] key) throws GeneralSecurityException
+  {
+    return SessionCookieCryptoEngine.forAlgorithm(getSymmetricEncryptionAlgorithm(), key);
+  }
+
   /**
    * The domain set ({@link javax.servlet.http.Cookie#setDomain(String)}) on the session cookie.
    * @return {@link SessionCookieParameters#DEFAULT_COOKIE_DOMAIN} by default
@@ -125,6 +258,45 @@ public interface SessionCookieParameters
     return DEFAULT_COOKIE_DOMAIN;
   }
 
+  /**
+   * The path set ({@link javax.servlet.http.Cookie#setPath(String)}) on the session cookie. If null the cookie has no path so browsers only send it back to the
+   * path of the request that set it and below. This may be a comma delimited list of paths, like <code>/app,/api</code>, in which case the cookie is issued
+   * for each path so browsers only upload the session on requests under one of them.
+   * @return {@link SessionCookieParameters#DEFAULT_COOKIE_PATH} by default
+   */
+  default String getCookiePath()
+  {
+    return DEFAULT_COOKIE_PATH;
+  }
+
+  /**
+   * If true the session cookie is marked Secure ({@link javax.servlet.http.Cookie#setSecure(boolean)}) so browsers only send it over HTTPS.
+   * @return {@link SessionCookieParameters#DEFAULT_COOKIE_SECURE} by default
+   */
+  default boolean getCookieSecure()
+  {
+    return DEFAULT_COOKIE_SECURE;
+  }
+
+  /**
+   * If true the session cookie is marked HttpOnly ({@link javax.servlet.http.Cookie#setHttpOnly(boolean)}) so it can't be read by scripts.
+   * @return {@link SessionCookieParameters#DEFAULT_COOKIE_HTTP_ONLY} by default
+   */
+  default boolean getCookieHttpOnly()
+  {
+    return DEFAULT_COOKIE_HTTP_ONLY;
+  }
+
+  /**
+   * The SameSite attribute of the session cookie, <code>Strict</code>, <code>Lax</code> or <code>None</code>. If null the cookie has no SameSite attribute and
+   * browsers use their default. Browsers reject <code>None</code> unless the cookie is also Secure.
+   * @return {@link SessionCookieParameters#DEFAULT_COOKIE_SAME_SITE} by default
+   */
+  default String getCookieSameSite()
+  {
+    return DEFAULT_COOKIE_SAME_SITE;
+  }
+
   /**
    * The name used for the session cookie.
    * @return {@link SessionCookieParameters#DEFAULT_COOKIE_NAME} by default
@@ -143,4 +315,14 @@ public interface SessionCookieParameters
   {
     return DEFAULT_COOKIE_SIZE_WARNING;
   }
+
+  /**
+   * The number of seconds between reloads of these parameters. Changes to any parameter take effect on the first request after the next reload. A zero or
+   * negative value never reloads the parameters on a schedule, they are then only reloaded by {@link SessionCookieRequestHandler#reloadParameters()}.
+   * @return {@link SessionCookieParameters#DEFAULT_PARAMETERS_RELOAD_SECONDS} by default
+   */
+  default int getParametersReloadSeconds()
+  {
+    return DEFAULT_PARAMETERS_RELOAD_SECONDS;
+  }
 }
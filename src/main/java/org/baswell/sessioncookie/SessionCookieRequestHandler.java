@@ -1,11 +1,11 @@
 package org.baswell.sessioncookie;
 
 import javax.servlet.ServletException;
-import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.regex.PatternSyntaxException;
 
 /**
@@ -15,15 +15,57 @@ public class SessionCookieRequestHandler
 {
   private final CacheManager cacheManager;
 
-  private final SessionCookieParameters parameters;
+  private final CurrentParameters parameters;
 
   private final SessionCookieErrorHandler errorHandler;
 
+  private final SessionCookieMetrics metrics;
+
   public SessionCookieRequestHandler(SessionCookieParameters parameters, SessionCookieErrorHandler errorHandler) throws GeneralSecurityException, PatternSyntaxException
   {
-    this.parameters = parameters;
+    this(parameters, errorHandler, SessionCookieMetrics.NONE, null);
+  }
+
+  /**
+   * @param parameters The session cookie parameters
+   * @param errorHandler The error handler
+   * @param scheduler Used to purge the session cache when {@link SessionCookieParameters#getPurgeSessionCacheWithBackgroundThread()} is true. If null a single daemon
+   *                  thread is created when it's first needed. A scheduler passed in here is not shut down by {@link #destroy()}.
+   */
+  public SessionCookieRequestHandler(SessionCookieParameters parameters, SessionCookieErrorHandler errorHandler, ScheduledExecutorService scheduler) throws GeneralSecurityException, PatternSyntaxException
+  {
+    this(parameters, errorHandler, SessionCookieMetrics.NONE, scheduler);
+  }
+
+  /**
+   * @param parameters The session cookie parameters
+   * @param errorHandler The error handler
+   * @param metrics Receives timings and counts from each stage of handling a request
+   * @param scheduler Used to purge the session cache when {@link SessionCookieParameters#getPurgeSessionCacheWithBackgroundThread()} is true. If null a single daemon
+   *                  thread is created when it's first needed. A scheduler passed in here is not shut down by {@link #destroy()}.
+   */
+  public SessionCookieRequestHandler(SessionCookieParameters parameters, SessionCookieErrorHandler errorHandler, SessionCookieMetrics metrics, ScheduledExecutorService scheduler) throws GeneralSecurityException, PatternSyntaxException
+  {
+    this.parameters = new CurrentParameters(parameters, errorHandler);
     this.errorHandler= errorHandler;
-    cacheManager = new CacheManager(parameters, errorHandler);
+    this.metrics = metrics;
+    cacheManager = new CacheManager(this.parameters, errorHandler, metrics, scheduler);
+  }
+
+  /**
+   * @return The metrics this handler reports to.
+   */
+  public SessionCookieMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  /**
+   * @return The number of sessions in the session cache.
+   */
+  int getCacheSize()
+  {
+    return cacheManager.size();
   }
 
   /**
@@ -38,93 +80,134 @@ public class SessionCookieRequestHandler
    */
   public void handle(HttpServletRequest request, HttpServletResponse response, SessionCookieRequestChain chain) throws IOException, ServletException
   {
+    ParametersSnapshot snapshot = parameters.reloadIfDue();
     RequestWrapper requestWrapper = new RequestWrapper(request, cacheManager);
     chain.forward(requestWrapper, response);
     CookieBackedSession session = requestWrapper.cookieBackedSession;
     if (session == null)
     {
-      if (sessionCookieExists(request) && parameters.getInactivityTimeoutSeconds() > 0)
+      if (snapshot.touchSessions && requestWrapper.getSessionCookieValue(snapshot.cookieName) != null)
       {
-        session = cacheManager.getSession(request, false);
+        session = cacheManager.getSession(requestWrapper, false);
         if (session != null)
         {
-          addSessionCookie(session, response);
+          if (touchDue(session))
+          {
+            addSessionCookie(session, response, true);
+          }
         }
         else
         {
-          removeSessionCookie(request, response);
+          removeSessionCookie(requestWrapper, response);
         }
       }
     }
     else if (session.invalidated)
     {
-      removeSessionCookie(request, response);
+      cacheManager.remove(session);
+      removeSessionCookie(requestWrapper, response);
     }
-    else if (session.sessionChanged || parameters.getInactivityTimeoutSeconds() > 0)
+    else
     {
-      addSessionCookie(session, response);
+      boolean touch = snapshot.touchSessions && (session.newSession || touchDue(session));
+      if (touch || session.sessionChanged)
+      {
+        addSessionCookie(session, response, touch);
+      }
     }
   }
 
-  private boolean sessionCookieExists(HttpServletRequest request)
+  /**
+   * Reads the parameters again now instead of waiting for the next scheduled reload. Requests that have already started finish with the parameters they started
+   * with.
+   *
+   * @throws GeneralSecurityException If the encryption key cannot be retrieved. The current parameters are kept.
+   * @throws IllegalArgumentException If the cookie name or attributes are invalid. The current parameters are kept.
+   * @see SessionCookieParameters#getParametersReloadSeconds()
+   */
+  public void reloadParameters() throws GeneralSecurityException
   {
-    Cookie[] cookies = request.getCookies();
-    if (cookies != null)
+    if (!parameters.reload().useCache)
     {
-      String cookieName = parameters.getCookieName();
-      for (Cookie cookie : cookies)
-      {
-        if (cookie.getName().equals(cookieName))
-        {
-          return true;
-        }
-      }
+      cacheManager.purge();
     }
-    return false;
   }
 
-  private void addSessionCookie(CookieBackedSession session, HttpServletResponse response)
+  /**
+   * Stops purging the session cache in the background and releases the cached sessions. This should be called when the application is shut down so no
+   * threads are left behind.
+   */
+  public void destroy()
+  {
+    cacheManager.destroy();
+  }
+
+  /**
+   * @return true if enough time has passed since the session was last touched that its cookie should be reissued to update the last accessed time.
+   * @see SessionCookieParameters#getTouchGranularitySeconds()
+   */
+  boolean touchDue(CookieBackedSession session)
   {
+    int touchGranularitySeconds = parameters.get().touchGranularitySeconds;
+    long touchGranularityMillis = touchGranularitySeconds >= 0 ? touchGranularitySeconds * 1000L : session.getMaxInactiveInterval() * 100L;
+    return System.currentTimeMillis() - session.getLastAccessedAt() >= touchGranularityMillis;
+  }
+
+  /**
+   * Encrypts the session and adds it to the response. If the session isn't being touched and it encodes to exactly what the client already sent, the client's cookie
+   * is still current so nothing is encrypted or sent.
+   */
+  private void addSessionCookie(CookieBackedSession session, HttpServletResponse response, boolean touch)
+  {
+    Object event = SessionCookieEvents.ENCODE.begin();
+    long start = System.nanoTime();
+    byte[] sessionData = session.encodeSessionData();
+    metrics.onEncode(System.nanoTime() - start);
+    if (!touch && session.matchesReceived(session.encodeControlData(), sessionData))
+    {
+      if (event != null)
+      {
+        SessionCookieEvents.ENCODE.commit(event, 0, session.attributeCount(), SessionCookieEvents.UNCHANGED);
+      }
+      return;
+    }
+
     session.touch();
+    byte[] controlData = session.encodeControlData();
+    ParametersSnapshot snapshot = parameters.get();
     try
     {
-      String cookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(session.controlData.encode(), session.sessionData.encode(), parameters.getSymmetricEncryptionKey(), parameters.getSymmetricEncryptionAlgorithm());
-      if (cookieValue.length() >= parameters.getCookieSizeWarning())
+      start = System.nanoTime();
+      String cookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(controlData, sessionData, snapshot.ciphers);
+      metrics.onEncrypt(System.nanoTime() - start);
+      metrics.onCookieSize(cookieValue.length());
+      if (cookieValue.length() >= snapshot.cookieSizeWarning)
       {
         errorHandler.onSessionCookieSizeWarning(session, cookieValue.length());
       }
-      Cookie cookie = new Cookie(parameters.getCookieName(), cookieValue);
-      cookie.setMaxAge(-1);
-      String domain = parameters.getCookieDomain();
-      if (domain != null && !domain.isEmpty())
+      snapshot.setCookieHeader.add(response, cookieValue);
+      session.issued(controlData, sessionData);
+      cacheManager.cookieIssued(session, cookieValue, snapshot.ciphers);
+      if (event != null)
       {
-        cookie.setDomain(domain);
+        SessionCookieEvents.ENCODE.commit(event, cookieValue.length(), session.attributeCount(), SessionCookieEvents.ISSUED);
       }
-
-      response.addCookie(cookie);
     }
     catch (GeneralSecurityException exception)
     {
-      errorHandler.onGeneralSecurityException(exception, parameters, true);
+      errorHandler.onGeneralSecurityException(exception, parameters.source, true);
     }
   }
 
-  private void removeSessionCookie(HttpServletRequest request, HttpServletResponse response)
+  /**
+   * Expires the session cookie on the client, if the client sent one.
+   */
+  private void removeSessionCookie(RequestWrapper request, HttpServletResponse response)
   {
-    Cookie[] cookies = request.getCookies();
-    if (cookies != null)
+    ParametersSnapshot snapshot = parameters.get();
+    if (request.getSessionCookieValue(snapshot.cookieName) != null)
     {
-      String cookieName = parameters.getCookieName();
-      for (Cookie cookie : cookies)
-      {
-        if (cookie.getName().equals(cookieName))
-        {
-          cookie.setValue(null);
-          cookie.setMaxAge(0);
-          response.addCookie(cookie);
-          break;
-        }
-      }
+      snapshot.setCookieHeader.remove(response);
     }
   }
 }
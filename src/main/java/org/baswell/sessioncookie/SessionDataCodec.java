@@ -0,0 +1,497 @@
+package org.baswell.sessioncookie;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compact, type tagged binary encoding for session maps. Common value types (strings, boxed primitives, byte arrays, dates, lists and maps of these) are written
+ * natively. Any other {@link Serializable} value falls back to Java serialization for just that value. Each entry carries the length of its value so {@link EncodedMap}
+ * can index the attributes without decoding them.
+ *
+ * <pre>
+ * map   := FORMAT_VERSION count:varint entry*
+ * entry := nameLength:varint name:utf8 valueLength:varint value
+ * value := tag payload
+ * </pre>
+ *
+ * The first byte of a Java serialization stream is always <code>0xAC</code> so {@link #FORMAT_VERSION} is enough to tell this format apart from session maps encoded
+ * before it existed.
+ */
+class SessionDataCodec
+{
+  static final byte FORMAT_VERSION = 0x01;
+
+  static final byte JAVA_SERIALIZATION_MAGIC = (byte) 0xAC;
+
+  static final byte NULL = 0;
+  static final byte STRING = 1;
+  static final byte TRUE = 2;
+  static final byte FALSE = 3;
+  static final byte BYTE = 4;
+  static final byte SHORT = 5;
+  static final byte CHARACTER = 6;
+  static final byte INTEGER = 7;
+  static final byte LONG = 8;
+  static final byte FLOAT = 9;
+  static final byte DOUBLE = 10;
+  static final byte BYTE_ARRAY = 11;
+  static final byte DATE = 12;
+  static final byte INSTANT = 13;
+  static final byte ARRAY_LIST = 14;
+  static final byte HASH_MAP = 15;
+  static final byte LINKED_HASH_MAP = 16;
+  static final byte SERIALIZED = 31;
+
+  static void writeValue(Writer writer, Object value)
+  {
+    if (value == null)
+    {
+      writer.writeByte(NULL);
+      return;
+    }
+
+    Class<?> type = value.getClass();
+    if (type == String.class)
+    {
+      writer.writeByte(STRING);
+      writer.writeString((String) value);
+    }
+    else if (type == Boolean.class)
+    {
+      writer.writeByte((Boolean) value ? TRUE : FALSE);
+    }
+    else if (type == Integer.class)
+    {
+      writer.writeByte(INTEGER);
+      writer.writeZigZag((Integer) value);
+    }
+    else if (type == Long.class)
+    {
+      writer.writeByte(LONG);
+      writer.writeZigZag((Long) value);
+    }
+    else if (type == Double.class)
+    {
+      writer.writeByte(DOUBLE);
+      writer.writeLong(Double.doubleToRawLongBits((Double) value));
+    }
+    else if (type == Float.class)
+    {
+      writer.writeByte(FLOAT);
+      writer.writeInt(Float.floatToRawIntBits((Float) value));
+    }
+    else if (type == Short.class)
+    {
+      writer.writeByte(SHORT);
+      writer.writeZigZag((Short) value);
+    }
+    else if (type == Byte.class)
+    {
+      writer.writeByte(BYTE);
+      writer.writeByte((Byte) value);
+    }
+    else if (type == Character.class)
+    {
+      writer.writeByte(CHARACTER);
+      writer.writeVarint((Character) value);
+    }
+    else if (type == byte[].class)
+    {
+      byte[] bytes = (byte[]) value;
+      writer.writeByte(BYTE_ARRAY);
+      writer.writeVarint(bytes.length);
+      writer.writeBytes(bytes, 0, bytes.length);
+    }
+    else if (type == Date.class)
+    {
+      writer.writeByte(DATE);
+      writer.writeZigZag(((Date) value).getTime());
+    }
+    else if (type == Instant.class)
+    {
+      Instant instant = (Instant) value;
+      writer.writeByte(INSTANT);
+      writer.writeZigZag(instant.getEpochSecond());
+      writer.writeVarint(instant.getNano());
+    }
+    else if (type == ArrayList.class)
+    {
+      List<?> list = (List<?>) value;
+      writer.writeByte(ARRAY_LIST);
+      writer.writeVarint(list.size());
+      for (Object element : list)
+      {
+        writeValue(writer, element);
+      }
+    }
+    else if (type == HashMap.class || type == LinkedHashMap.class)
+    {
+      Map<?, ?> map = (Map<?, ?>) value;
+      writer.writeByte(type == HashMap.class ? HASH_MAP : LINKED_HASH_MAP);
+      writer.writeVarint(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet())
+      {
+        writeValue(writer, entry.getKey());
+        writeValue(writer, entry.getValue());
+      }
+    }
+    else
+    {
+      writer.writeByte(SERIALIZED);
+      int lengthAt = writer.reserveLength();
+      try
+      {
+        ObjectOutputStream oos = new ObjectOutputStream(writer);
+        oos.writeObject(value);
+        oos.close();
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+      writer.fillLength(lengthAt);
+    }
+  }
+
+  static Object readValue(Reader reader) throws IOException, ClassNotFoundException
+  {
+    byte tag = reader.readByte();
+    switch (tag)
+    {
+      case NULL:
+        return null;
+
+      case STRING:
+        return reader.readString();
+
+      case TRUE:
+        return Boolean.TRUE;
+
+      case FALSE:
+        return Boolean.FALSE;
+
+      case BYTE:
+        return reader.readByte();
+
+      case SHORT:
+        return (short) reader.readZigZag();
+
+      case CHARACTER:
+        return (char) reader.readVarint();
+
+      case INTEGER:
+        return (int) reader.readZigZag();
+
+      case LONG:
+        return reader.readZigZag();
+
+      case FLOAT:
+        return Float.intBitsToFloat(reader.readInt());
+
+      case DOUBLE:
+        return Double.longBitsToDouble(reader.readLong());
+
+      case BYTE_ARRAY:
+        return reader.readBytes(reader.readVarint());
+
+      case DATE:
+        return new Date(reader.readZigZag());
+
+      case INSTANT:
+        return Instant.ofEpochSecond(reader.readZigZag(), reader.readVarint());
+
+      case ARRAY_LIST:
+      {
+        int size = reader.readVarint();
+        List<Object> list = new ArrayList<>(Math.min(size, reader.remaining()));
+        for (int i = 0; i < size; i++)
+        {
+          list.add(readValue(reader));
+        }
+        return list;
+      }
+
+      case HASH_MAP:
+      case LINKED_HASH_MAP:
+      {
+        int size = reader.readVarint();
+        int capacity = Math.min(size, reader.remaining()) * 4 / 3 + 1;
+        Map<Object, Object> map = tag == HASH_MAP ? new HashMap<>(capacity) : new LinkedHashMap<>(capacity);
+        for (int i = 0; i < size; i++)
+        {
+          map.put(readValue(reader), readValue(reader));
+        }
+        return map;
+      }
+
+      case SERIALIZED:
+      {
+        int length = reader.readVarint();
+        Reader serialized = reader.slice(length);
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized.data, serialized.position, length));
+        Object value = ois.readObject();
+        ois.close();
+        return value;
+      }
+
+      default:
+        throw new StreamCorruptedException(format("Invalid session data value tag %d.", tag));
+    }
+  }
+
+  /**
+   * Growable byte buffer. Extends {@link ByteArrayOutputStream} only so Java serialized values can be written straight into it.
+   */
+  static class Writer extends ByteArrayOutputStream
+  {
+    Writer(int size)
+    {
+      super(size);
+    }
+
+    void writeByte(int value)
+    {
+      ensureCapacity(1);
+      buf[count++] = (byte) value;
+    }
+
+    void writeBytes(byte[] bytes, int offset, int length)
+    {
+      ensureCapacity(length);
+      System.arraycopy(bytes, offset, buf, count, length);
+      count += length;
+    }
+
+    @Override
+    public void write(int value)
+    {
+      writeByte(value);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length)
+    {
+      writeBytes(bytes, offset, length);
+    }
+
+    void writeInt(int value)
+    {
+      ensureCapacity(4);
+      buf[count++] = (byte) (value >>> 24);
+      buf[count++] = (byte) (value >>> 16);
+      buf[count++] = (byte) (value >>> 8);
+      buf[count++] = (byte) value;
+    }
+
+    void writeLong(long value)
+    {
+      writeInt((int) (value >>> 32));
+      writeInt((int) value);
+    }
+
+    void writeVarint(int value)
+    {
+      writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    void writeZigZag(long value)
+    {
+      writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    void writeVarLong(long value)
+    {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0)
+      {
+        buf[count++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buf[count++] = (byte) value;
+    }
+
+    void writeString(String value)
+    {
+      byte[] bytes = value.getBytes(UTF_8);
+      writeVarint(bytes.length);
+      writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Reserves a single byte for a varint length that is filled in by {@link #fillLength(int)} once the bytes that follow have been written.
+     */
+    int reserveLength()
+    {
+      writeByte(0);
+      return count;
+    }
+
+    void fillLength(int lengthAt)
+    {
+      int length = count - lengthAt;
+      int varintSize = varintSize(length);
+      if (varintSize > 1)
+      {
+        ensureCapacity(varintSize - 1);
+        System.arraycopy(buf, lengthAt, buf, lengthAt + varintSize - 1, length);
+        count += varintSize - 1;
+      }
+
+      int position = lengthAt - 1;
+      while ((length & ~0x7F) != 0)
+      {
+        buf[position++] = (byte) ((length & 0x7F) | 0x80);
+        length >>>= 7;
+      }
+      buf[position] = (byte) length;
+    }
+
+    private void ensureCapacity(int additional)
+    {
+      if (count + additional > buf.length)
+      {
+        byte[] newBuf = new byte[Math.max(buf.length << 1, count + additional)];
+        System.arraycopy(buf, 0, newBuf, 0, count);
+        buf = newBuf;
+      }
+    }
+
+    static int varintSize(int value)
+    {
+      int size = 1;
+      while ((value & ~0x7F) != 0)
+      {
+        value >>>= 7;
+        size++;
+      }
+      return size;
+    }
+  }
+
+  /**
+   * Bounds checked reader over a region of a byte array.
+   */
+  static class Reader
+  {
+    final byte[] data;
+
+    int position;
+
+    final int limit;
+
+    Reader(byte[] data, int offset, int length)
+    {
+      this.data = data;
+      this.position = offset;
+      this.limit = offset + length;
+    }
+
+    int remaining()
+    {
+      return limit - position;
+    }
+
+    byte readByte() throws IOException
+    {
+      require(1);
+      return data[position++];
+    }
+
+    int readInt() throws IOException
+    {
+      require(4);
+      int value = ((data[position] & 0xFF) << 24) | ((data[position + 1] & 0xFF) << 16) | ((data[position + 2] & 0xFF) << 8) | (data[position + 3] & 0xFF);
+      position += 4;
+      return value;
+    }
+
+    long readLong() throws IOException
+    {
+      return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    int readVarint() throws IOException
+    {
+      long value = readVarLong();
+      if (value < 0 || value > Integer.MAX_VALUE)
+      {
+        throw new StreamCorruptedException(format("Invalid session data length %d.", value));
+      }
+      return (int) value;
+    }
+
+    long readZigZag() throws IOException
+    {
+      long value = readVarLong();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    long readVarLong() throws IOException
+    {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7)
+      {
+        byte b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0)
+        {
+          return value;
+        }
+      }
+      throw new StreamCorruptedException("Malformed varint in session data.");
+    }
+
+    String readString() throws IOException
+    {
+      int length = readVarint();
+      require(length);
+      String value = new String(data, position, length, UTF_8);
+      position += length;
+      return value;
+    }
+
+    byte[] readBytes(int length) throws IOException
+    {
+      require(length);
+      byte[] bytes = new byte[length];
+      System.arraycopy(data, position, bytes, 0, length);
+      position += length;
+      return bytes;
+    }
+
+    /**
+     * @return A reader over the next <code>length</code> bytes. This reader is advanced past them.
+     */
+    Reader slice(int length) throws IOException
+    {
+      require(length);
+      Reader slice = new Reader(data, position, length);
+      position += length;
+      return slice;
+    }
+
+    private void require(int length) throws IOException
+    {
+      if (length < 0 || length > limit - position)
+      {
+        throw new EOFException("Unexpected end of session data.");
+      }
+    }
+  }
+}
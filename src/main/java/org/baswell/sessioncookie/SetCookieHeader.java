@@ -0,0 +1,192 @@
+package org.baswell.sessioncookie;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * Writes the session cookie straight to the <code>Set-Cookie</code> response header. The cookie's attributes only change when the parameters do, so they are
+ * rendered once into a suffix and each response only appends the cookie value between the name and the suffix. This skips building a {@link javax.servlet.http.Cookie}
+ * that the container would otherwise validate and format again on every response. A cookie scoped to more than one path is written once for each path.
+ */
+class SetCookieHeader
+{
+  static final String SET_COOKIE_HEADER = "Set-Cookie";
+
+  static final String SAME_SITE_STRICT = "Strict";
+
+  static final String SAME_SITE_LAX = "Lax";
+
+  static final String SAME_SITE_NONE = "None";
+
+  private static final String SEPARATORS = "()<>@,;:\\\"/[]?={} \t";
+
+  /**
+   * <code>name=</code>
+   */
+  private final String prefix;
+
+  /**
+   * <code>; Domain=...; Path=...; Secure; HttpOnly; SameSite=...</code> for each path.
+   */
+  private final String[] suffixes;
+
+  /**
+   * The complete headers that expire the cookie on the client for each path.
+   */
+  private final String[] removals;
+
+  /**
+   * @param name The cookie name
+   * @param domain The Domain attribute or null for none
+   * @param paths The Path attribute of each cookie written or null for one cookie without a Path
+   * @param secure Adds the Secure attribute
+   * @param httpOnly Adds the HttpOnly attribute
+   * @param sameSite The SameSite attribute (<code>Strict</code>, <code>Lax</code> or <code>None</code> in any case) or null for none
+   * @throws IllegalArgumentException If the name is not a valid cookie name or an attribute value could not be sent in a header.
+   */
+  SetCookieHeader(String name, String domain, String[] paths, boolean secure, boolean httpOnly, String sameSite) throws IllegalArgumentException
+  {
+    if (name == null || name.isEmpty())
+    {
+      throw new IllegalArgumentException("The cookie name is empty.");
+    }
+    for (int i = 0; i < name.length(); i++)
+    {
+      char c = name.charAt(i);
+      if (c <= 0x20 || c >= 0x7f || SEPARATORS.indexOf(c) >= 0)
+      {
+        throw new IllegalArgumentException(format("Invalid cookie name %s.", name));
+      }
+    }
+
+    if (paths == null || paths.length == 0)
+    {
+      paths = new String[] {null};
+    }
+
+    prefix = name + "=";
+    suffixes = new String[paths.length];
+    removals = new String[paths.length];
+    for (int i = 0; i < paths.length; i++)
+    {
+      StringBuilder attributes = new StringBuilder();
+      if (domain != null)
+      {
+        attributes.append("; Domain=").append(attributeValue("Domain", domain));
+      }
+      if (paths[i] != null)
+      {
+        attributes.append("; Path=").append(attributeValue("Path", paths[i]));
+      }
+      if (secure)
+      {
+        attributes.append("; Secure");
+      }
+      if (httpOnly)
+      {
+        attributes.append("; HttpOnly");
+      }
+      if (sameSite != null)
+      {
+        attributes.append("; SameSite=").append(sameSite(sameSite));
+      }
+
+      suffixes[i] = attributes.toString();
+      removals[i] = prefix + "; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT" + suffixes[i];
+    }
+  }
+
+  /**
+   * Adds the cookie with the given value to the response. The cookie has no Max-Age so it's removed when the browser is closed.
+   *
+   * @param value The cookie value, which must only contain cookie value characters like the Base64 URL alphabet.
+   */
+  void add(HttpServletResponse response, String value)
+  {
+    for (int i = 0; i < suffixes.length; i++)
+    {
+      response.addHeader(SET_COOKIE_HEADER, render(value, i));
+    }
+  }
+
+  /**
+   * Adds the headers to the response that expire the cookie on the client.
+   */
+  void remove(HttpServletResponse response)
+  {
+    for (String removal : removals)
+    {
+      response.addHeader(SET_COOKIE_HEADER, removal);
+    }
+  }
+
+  /**
+   * @return The header for the cookie with the given value and the path at the given index.
+   */
+  String render(String value, int path)
+  {
+    String suffix = suffixes[path];
+    return new StringBuilder(prefix.length() + value.length() + suffix.length()).append(prefix).append(value).append(suffix).toString();
+  }
+
+  String removal(int path)
+  {
+    return removals[path];
+  }
+
+  int pathCount()
+  {
+    return suffixes.length;
+  }
+
+  /**
+   * @param paths A comma delimited list of paths
+   * @return The paths or null if the list is empty.
+   */
+  static String[] parsePaths(String paths)
+  {
+    if (paths == null)
+    {
+      return null;
+    }
+
+    List<String> parsed = new ArrayList<>();
+    for (String path : paths.split(","))
+    {
+      path = path.trim();
+      if (!path.isEmpty() && !parsed.contains(path))
+      {
+        parsed.add(path);
+      }
+    }
+    return parsed.isEmpty() ? null : parsed.toArray(new String[parsed.size()]);
+  }
+
+  static String sameSite(String sameSite)
+  {
+    for (String value : new String[] {SAME_SITE_STRICT, SAME_SITE_LAX, SAME_SITE_NONE})
+    {
+      if (value.equalsIgnoreCase(sameSite))
+      {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException(format("Invalid cookie SameSite %s. Must be %s, %s or %s.", sameSite, SAME_SITE_STRICT, SAME_SITE_LAX, SAME_SITE_NONE));
+  }
+
+  private static String attributeValue(String attribute, String value)
+  {
+    for (int i = 0; i < value.length(); i++)
+    {
+      char c = value.charAt(i);
+      if (c < 0x20 || c >= 0x7f || c == ';')
+      {
+        throw new IllegalArgumentException(format("Invalid cookie %s %s.", attribute, value));
+      }
+    }
+    return value;
+  }
+}
@@ -0,0 +1,145 @@
+package org.baswell.sessioncookie;
+
+import java.util.List;
+
+/**
+ * A hierarchical timer wheel that indexes {@link Timer}s by their deadline in milliseconds. Each level is a ring of buckets covering a power of two
+ * span of time: roughly one second buckets for the next minute, one minute buckets for the next hour, seventy minute buckets for the next day and a half
+ * and day and a half buckets for the next twenty five days. Timers further out than that are revisited every twenty five days until they're in range.
+ * Scheduling and descheduling are constant time. Advancing the wheel only visits the buckets whose time has come, cascading timers from coarser buckets
+ * down to finer ones as their deadline approaches.
+ * <p>
+ * This class is not thread safe. Callers must hold the lock of the cache that owns it.
+ */
+class TimerWheel
+{
+  /**
+   * A node that can be scheduled on the wheel. The links are intrusive so scheduling never allocates.
+   */
+  static class Timer
+  {
+    long deadline;
+
+    Timer timerPrevious;
+
+    Timer timerNext;
+
+    boolean isScheduled()
+    {
+      return timerNext != null;
+    }
+  }
+
+  private static final int[] BUCKETS = {64, 64, 32, 16};
+
+  private static final int[] SHIFTS = {10, 16, 22, 27};
+
+  private final Timer[][] wheel;
+
+  private long time;
+
+  TimerWheel(long now)
+  {
+    time = now;
+    wheel = new Timer[BUCKETS.length][];
+    for (int i = 0; i < BUCKETS.length; i++)
+    {
+      wheel[i] = new Timer[BUCKETS[i]];
+      for (int j = 0; j < BUCKETS[i]; j++)
+      {
+        Timer sentinel = new Timer();
+        sentinel.timerPrevious = sentinel.timerNext = sentinel;
+        wheel[i][j] = sentinel;
+      }
+    }
+  }
+
+  /**
+   * Schedules the timer at its deadline. A deadline that has already passed fires on the next advance.
+   */
+  void schedule(Timer timer)
+  {
+    Timer sentinel = findBucket(Math.max(timer.deadline, time));
+    timer.timerPrevious = sentinel.timerPrevious;
+    timer.timerNext = sentinel;
+    sentinel.timerPrevious.timerNext = timer;
+    sentinel.timerPrevious = timer;
+  }
+
+  void deschedule(Timer timer)
+  {
+    if (timer.isScheduled())
+    {
+      timer.timerPrevious.timerNext = timer.timerNext;
+      timer.timerNext.timerPrevious = timer.timerPrevious;
+      timer.timerPrevious = timer.timerNext = null;
+    }
+  }
+
+  /**
+   * Advances the wheel to <code>now</code>. Timers whose deadline has passed are descheduled and added to <code>expired</code>, timers in the
+   * visited buckets that aren't due yet are moved to a finer bucket.
+   */
+  void advance(long now, List<Timer> expired)
+  {
+    if (now <= time)
+    {
+      return;
+    }
+
+    long previousTime = time;
+    time = now;
+    for (int i = 0; i < SHIFTS.length; i++)
+    {
+      long previousTicks = previousTime >>> SHIFTS[i];
+      long delta = (now >>> SHIFTS[i]) - previousTicks;
+      if (delta <= 0)
+      {
+        break;
+      }
+      expire(i, previousTicks, delta, expired);
+    }
+  }
+
+  private void expire(int level, long previousTicks, long delta, List<Timer> expired)
+  {
+    Timer[] buckets = wheel[level];
+    int mask = buckets.length - 1;
+    int start = (int) (previousTicks & mask);
+    int end = delta >= buckets.length ? start + buckets.length : start + (int) delta + 1;
+    for (int i = start; i < end; i++)
+    {
+      Timer sentinel = buckets[i & mask];
+      Timer timer = sentinel.timerNext;
+      sentinel.timerPrevious = sentinel.timerNext = sentinel;
+      while (timer != sentinel)
+      {
+        Timer next = timer.timerNext;
+        timer.timerPrevious = timer.timerNext = null;
+        if (timer.deadline <= time)
+        {
+          expired.add(timer);
+        }
+        else
+        {
+          schedule(timer);
+        }
+        timer = next;
+      }
+    }
+  }
+
+  private Timer findBucket(long deadline)
+  {
+    long duration = deadline - time;
+    int last = BUCKETS.length - 1;
+    for (int i = 0; i < last; i++)
+    {
+      if (duration < ((long) BUCKETS[i] << SHIFTS[i]))
+      {
+        return wheel[i][(int) ((deadline >>> SHIFTS[i]) & (BUCKETS[i] - 1))];
+      }
+    }
+    return wheel[last][(int) ((deadline >>> SHIFTS[last]) & (BUCKETS[last] - 1))];
+  }
+}
@@ -0,0 +1,170 @@
+package org.baswell.sessioncookie;
+
+import org.junit.Test;
+
+import javax.crypto.KeyGenerator;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CacheManagerTests
+{
+  @Test
+  public void testCookieValueCache() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setMaxInMemorySessions(10);
+    CurrentParameters currentParameters = new CurrentParameters(parameters, new SessionCookieDefaultErrorHandler());
+    CacheManager cacheManager = new CacheManager(currentParameters, new SessionCookieDefaultErrorHandler());
+
+    CookieBackedSession session = cacheManager.getSession(request(parameters, null), true);
+    String firstCookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(session.encodeControlData(), session.encodeSessionData(), currentParameters.get().ciphers);
+    cacheManager.cookieIssued(session, firstCookieValue, currentParameters.get().ciphers);
+
+    assertSame(session, cacheManager.getSession(request(parameters, firstCookieValue), false));
+    assertEquals(1, cacheManager.getCookieValueCacheHits());
+    assertEquals(0, cacheManager.getCookieValueCacheMisses());
+
+    session.sessionData().put("key", "value");
+    String secondCookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(session.encodeControlData(), session.encodeSessionData(), currentParameters.get().ciphers);
+    cacheManager.cookieIssued(session, secondCookieValue, currentParameters.get().ciphers);
+
+    assertSame(session, cacheManager.getSession(request(parameters, secondCookieValue), false));
+    assertEquals(2, cacheManager.getCookieValueCacheHits());
+
+    /*
+     * The old cookie value is no longer indexed so it's decrypted and resolved by session ID.
+     */
+    assertSame(session, cacheManager.getSession(request(parameters, firstCookieValue), false));
+    assertEquals(1, cacheManager.getCookieValueCacheMisses());
+
+    cacheManager.remove(session);
+    CookieBackedSession decryptedSession = cacheManager.getSession(request(parameters, secondCookieValue), false);
+    assertNotSame(session, decryptedSession);
+    assertEquals(session.getId(), decryptedSession.getId());
+    assertEquals("value", decryptedSession.getAttribute("key"));
+    assertEquals(2, cacheManager.getCookieValueCacheMisses());
+
+    assertSame(decryptedSession, cacheManager.getSession(request(parameters, secondCookieValue), false));
+    assertEquals(3, cacheManager.getCookieValueCacheHits());
+  }
+
+  @Test
+  public void testCookieValueCacheKeyRetirement() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setMaxInMemorySessions(10);
+    parameters.setSymmetricEncryptionKeyId(1);
+    parameters.setKeyRetirementSeconds(0);
+    CurrentParameters currentParameters = new CurrentParameters(parameters, new SessionCookieDefaultErrorHandler());
+    CacheManager cacheManager = new CacheManager(currentParameters, new SessionCookieDefaultErrorHandler());
+
+    CookieBackedSession session = cacheManager.getSession(request(parameters, null), true);
+    String cookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(session.encodeControlData(), session.encodeSessionData(), currentParameters.get().ciphers);
+    cacheManager.cookieIssued(session, cookieValue, currentParameters.get().ciphers);
+    assertSame(session, cacheManager.getSession(request(parameters, cookieValue), false));
+    assertEquals(1, cacheManager.getCookieValueCacheHits());
+
+    /*
+     * The key the cookie was sealed with retires immediately so the cached cookie value is no longer accepted.
+     */
+    parameters.setSymmetricEncryptionKey(KeyGenerator.getInstance("AES").generateKey().getEncoded());
+    parameters.setSymmetricEncryptionKeyId(2);
+    currentParameters.reload();
+    assertNull(cacheManager.getSession(request(parameters, cookieValue), false));
+    assertEquals(1, cacheManager.getCookieValueCacheHits());
+    assertEquals(1, cacheManager.getCookieValueCacheMisses());
+  }
+
+  @Test
+  public void testCacheTurnedOff() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setMaxInMemorySessions(10);
+    parameters.setPurgeSessionCacheWithBackgroundThread(false);
+    CurrentParameters currentParameters = new CurrentParameters(parameters, new SessionCookieDefaultErrorHandler());
+    CacheManager cacheManager = new CacheManager(currentParameters, new SessionCookieDefaultErrorHandler());
+
+    CookieBackedSession session = cacheManager.getSession(request(parameters, null), true);
+    String cookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(session.encodeControlData(), session.encodeSessionData(), currentParameters.get().ciphers);
+    cacheManager.cookieIssued(session, cookieValue, currentParameters.get().ciphers);
+    cacheManager.getSession(request(parameters, null), true);
+    assertEquals(2, cacheManager.size());
+
+    parameters.setMaxInMemorySessions(0);
+    currentParameters.reload();
+    CookieBackedSession decryptedSession = cacheManager.getSession(request(parameters, cookieValue), false);
+    assertEquals(0, cacheManager.size());
+    assertNotSame(session, decryptedSession);
+    assertEquals(session.getId(), decryptedSession.getId());
+    assertEquals(0, cacheManager.getCookieValueCacheHits());
+  }
+
+  @Test
+  public void testScheduler() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setMaxInMemorySessions(100);
+    parameters.setPurgeSessionCacheWithBackgroundThread(true);
+    parameters.setMinimumSecondsBetweenSessionCachePurges(20);
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    scheduler.setRemoveOnCancelPolicy(true);
+    CurrentParameters currentParameters = new CurrentParameters(parameters, new SessionCookieDefaultErrorHandler());
+    CacheManager cacheManager = new CacheManager(currentParameters, new SessionCookieDefaultErrorHandler(), SessionCookieMetrics.NONE, scheduler);
+
+    assertEquals(80000, cacheManager.nextPurgeDelayMillis());
+    CookieBackedSession session = cacheManager.getSession(request(parameters, null), true);
+    assertEquals(1, scheduler.getQueue().size());
+    assertEquals(20000, cacheManager.nextPurgeDelayMillis());
+    for (int i = 0; i < 60; i++)
+    {
+      cacheManager.getSession(request(parameters, null), true);
+    }
+    assertEquals(10000, cacheManager.nextPurgeDelayMillis());
+    for (int i = 0; i < 30; i++)
+    {
+      cacheManager.getSession(request(parameters, null), true);
+    }
+    assertEquals(5000, cacheManager.nextPurgeDelayMillis());
+    assertEquals(1, scheduler.getQueue().size());
+
+    cacheManager.destroy();
+    assertFalse(scheduler.isShutdown());
+    assertTrue(scheduler.getQueue().isEmpty());
+    assertFalse(cacheManager.useCache());
+
+    String cookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(session.encodeControlData(), session.encodeSessionData(), currentParameters.get().ciphers);
+    CookieBackedSession decryptedSession = cacheManager.getSession(request(parameters, cookieValue), false);
+    assertEquals(session.getId(), decryptedSession.getId());
+    assertNotSame(session, decryptedSession);
+    assertTrue(scheduler.getQueue().isEmpty());
+    scheduler.shutdown();
+  }
+
+  static HttpServletRequest request(SessionCookieParameters parameters, String cookieValue)
+  {
+    final Cookie[] cookies = cookieValue == null ? null : new Cookie[] {new Cookie(parameters.getCookieName(), cookieValue)};
+    return (HttpServletRequest) Proxy.newProxyInstance(CacheManagerTests.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) ->
+    {
+      switch (method.getName())
+      {
+        case "getCookies":
+          return cookies;
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        default:
+          return null;
+      }
+    });
+  }
+}
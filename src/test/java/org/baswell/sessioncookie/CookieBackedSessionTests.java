@@ -0,0 +1,135 @@
+package org.baswell.sessioncookie;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.baswell.sessioncookie.CookieBackedSession.CONTROL_DATA_LENGTH;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CookieBackedSessionTests
+{
+  @Test
+  public void testControlData() throws Exception
+  {
+    CookieBackedSession expectedSession = new CookieBackedSession(600, new SessionCookieDefaultErrorHandler());
+    expectedSession.createdAt -= 5000;
+
+    byte[] controlData = expectedSession.encodeControlData();
+    assertEquals(CONTROL_DATA_LENGTH, controlData.length);
+
+    CookieBackedSession actualSession = new CookieBackedSession(controlData, new EncodedMap().toBytes(), new SessionCookieDefaultErrorHandler());
+    assertEquals(expectedSession.getId(), actualSession.getId());
+    assertEquals(expectedSession.getCreationTime(), actualSession.getCreationTime());
+    assertEquals(expectedSession.getLastAccessedTime(), actualSession.getLastAccessedTime());
+    assertEquals(600, actualSession.getMaxInactiveInterval());
+    assertFalse(actualSession.isNew());
+  }
+
+  @Test
+  public void testLegacyControlData() throws Exception
+  {
+    String sessionId = UUID.randomUUID().toString();
+    long now = System.currentTimeMillis();
+
+    EncodedMap legacyControlData = new EncodedMap();
+    legacyControlData.put(CookieBackedSession.SESSION_ID_KEY, sessionId);
+    legacyControlData.put(CookieBackedSession.CREATED_AT_KEY, now - 1000);
+    legacyControlData.put(CookieBackedSession.LAST_ACCESSED_AT_KEY, now);
+    legacyControlData.put(CookieBackedSession.SESSION_INACTIVITY_TIMEOUT_KEY, -1);
+
+    CookieBackedSession session = new CookieBackedSession(legacyControlData.toBytes(), new EncodedMap().toBytes(), new SessionCookieDefaultErrorHandler());
+    assertEquals(sessionId, session.getId());
+    assertEquals(now - 1000, session.getCreationTime());
+    assertEquals(now, session.getLastAccessedTime());
+    assertEquals(-1, session.getMaxInactiveInterval());
+  }
+
+  @Test
+  public void testHasExpired()
+  {
+    CookieBackedSession session = new CookieBackedSession(60, new SessionCookieDefaultErrorHandler());
+    assertFalse(session.hasExpired(30));
+
+    session.lastAccessedAt -= 61000;
+    assertTrue(session.hasExpired(30));
+
+    session.touch();
+    assertFalse(session.hasExpired(30));
+
+    session.createdAt -= 31 * 60000L;
+    assertTrue(session.hasExpired(30));
+    assertFalse(session.hasExpired(-1));
+
+    session.setMaxInactiveInterval(-1);
+    session.lastAccessedAt -= 365 * 24 * 3600000L;
+    assertFalse(session.hasExpired(-1));
+  }
+
+  @Test
+  public void testLazySessionData() throws Exception
+  {
+    EncodedMap sessionData = new EncodedMap();
+    sessionData.put("flag", true);
+    sessionData.put("name", "value");
+    byte[] encodedSessionData = sessionData.toBytes();
+
+    CookieBackedSession session = new CookieBackedSession(new CookieBackedSession(60, null).encodeControlData(), encodedSessionData, new SessionCookieDefaultErrorHandler());
+    session.getId();
+    session.touch();
+    assertSame(encodedSessionData, session.encodeSessionData());
+
+    assertEquals(true, session.getAttribute("flag"));
+    assertFalse(session.sessionChanged);
+    assertArrayEquals(encodedSessionData, session.encodeSessionData());
+
+    session.setAttribute("name", "changed");
+    assertEquals(sessionData.size(), new EncodedMap(session.encodeSessionData()).size());
+    assertEquals("changed", new EncodedMap(session.encodeSessionData()).get("name"));
+  }
+
+  @Test
+  public void testUndecodableSessionData() throws Exception
+  {
+    CookieBackedSession session = new CookieBackedSession(new CookieBackedSession(60, null).encodeControlData(), new byte[] {SessionDataCodec.FORMAT_VERSION, 5}, new SessionCookieDefaultErrorHandler());
+    assertNull(session.getAttribute("flag"));
+    assertTrue(session.sessionChanged);
+  }
+
+  @Test
+  public void testMatchesReceived() throws Exception
+  {
+    EncodedMap sessionData = new EncodedMap();
+    sessionData.put("user", "alice");
+    sessionData.put("roles", new ArrayList<>(Arrays.asList("admin", "user")));
+    byte[] controlData = new CookieBackedSession(60, null).encodeControlData();
+    byte[] encodedSessionData = sessionData.toBytes();
+
+    CookieBackedSession session = new CookieBackedSession(controlData, encodedSessionData, new SessionCookieDefaultErrorHandler());
+    assertTrue(session.matchesReceived(session.encodeControlData(), session.encodeSessionData()));
+
+    session.setAttribute("user", "alice");
+    session.setAttribute("roles", session.getAttribute("roles"));
+    assertTrue(session.sessionChanged);
+    assertTrue(session.matchesReceived(session.encodeControlData(), session.encodeSessionData()));
+
+    session.setAttribute("user", "bob");
+    byte[] changedSessionData = session.encodeSessionData();
+    assertFalse(session.matchesReceived(session.encodeControlData(), changedSessionData));
+
+    session.issued(session.encodeControlData(), changedSessionData);
+    assertFalse(session.sessionChanged);
+    assertTrue(session.matchesReceived(session.encodeControlData(), session.encodeSessionData()));
+
+    session.touch();
+    session.lastAccessedAt++;
+    assertFalse(session.matchesReceived(session.encodeControlData(), session.encodeSessionData()));
+  }
+}
@@ -0,0 +1,57 @@
+package org.baswell.sessioncookie;
+
+import org.junit.Test;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CookieHeaderScannerTests
+{
+  @Test
+  public void testFindValue()
+  {
+    assertEquals("abc", CookieHeaderScanner.findValue("SessionCookie=abc", "SessionCookie"));
+    assertEquals("abc", CookieHeaderScanner.findValue("a=1; SessionCookie=abc; b=2", "SessionCookie"));
+    assertEquals("abc", CookieHeaderScanner.findValue(" a=1 ;\tSessionCookie = \"abc\" ", "SessionCookie"));
+    assertEquals("", CookieHeaderScanner.findValue("SessionCookie=; b=2", "SessionCookie"));
+    assertEquals("2", CookieHeaderScanner.findValue("novalue; b=2", "b"));
+    assertNull(CookieHeaderScanner.findValue("sessioncookie=abc", "SessionCookie"));
+    assertNull(CookieHeaderScanner.findValue("XSessionCookie=abc; SessionCookieX=abc", "SessionCookie"));
+    assertNull(CookieHeaderScanner.findValue("", "SessionCookie"));
+    assertNull(CookieHeaderScanner.findValue((String) null, "SessionCookie"));
+  }
+
+  @Test
+  public void testFindValueInRequest()
+  {
+    HttpServletRequest request = request(new String[] {"a=1", "b=2; SessionCookie=abc"}, null);
+    assertEquals("abc", CookieHeaderScanner.findValue(request, "SessionCookie"));
+    assertNull(CookieHeaderScanner.findValue(request, "c"));
+
+    request = request(null, new Cookie[] {new Cookie("sessioncookie", "xyz"), new Cookie("SessionCookie", "abc")});
+    assertEquals("abc", CookieHeaderScanner.findValue(request, "SessionCookie"));
+    assertNull(CookieHeaderScanner.findValue(request(null, null), "SessionCookie"));
+  }
+
+  static HttpServletRequest request(String[] headers, Cookie[] cookies)
+  {
+    return (HttpServletRequest) Proxy.newProxyInstance(CookieHeaderScannerTests.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) ->
+    {
+      switch (method.getName())
+      {
+        case "getHeaders":
+          return headers == null ? null : Collections.enumeration(Arrays.asList(headers));
+        case "getCookies":
+          return cookies;
+        default:
+          return null;
+      }
+    });
+  }
+}
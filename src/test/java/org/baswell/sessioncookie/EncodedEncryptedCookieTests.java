@@ -2,13 +2,25 @@ package org.baswell.sessioncookie;
 
 import org.junit.Test;
 
+import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 
+import java.security.GeneralSecurityException;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Random;
 import java.util.UUID;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 public class EncodedEncryptedCookieTests
 {
@@ -36,7 +48,7 @@ public class EncodedEncryptedCookieTests
     expectedSessionMap.put("Three", false);
     expectedSessionMap.put("Four", 3.45);
 
-    String encodeAndEncrypt = EncodedEncryptedCookieValue.encodeAndEncrypt(expectedControlMap.encode(), expectedSessionMap.encode(), key.getEncoded(), "AES");
+    String encodeAndEncrypt = EncodedEncryptedCookieValue.encodeAndEncrypt(expectedControlMap.toBytes(), expectedSessionMap.toBytes(), key.getEncoded(), "AES");
     EncodedEncryptedCookieValue actualCookie = EncodedEncryptedCookieValue.decodeAndDecrypt(encodeAndEncrypt, key.getEncoded(), "AES");
 
     EncodedMap actualControlMap = new EncodedMap(actualCookie.controlData);
@@ -45,4 +57,260 @@ public class EncodedEncryptedCookieTests
     EncodedMap actualSessionMap = new EncodedMap(actualCookie.sessionData);
     assertEquals(expectedSessionMap, actualSessionMap);
   }
+
+  @Test
+  public void testCiphersKeyChange() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    CurrentParameters currentParameters = new CurrentParameters(parameters, new SessionCookieDefaultErrorHandler());
+
+    KeyedCiphers ciphers = currentParameters.get().ciphers;
+    assertSame(ciphers, currentParameters.reload().ciphers);
+
+    String encodeAndEncrypt = EncodedEncryptedCookieValue.encodeAndEncrypt(new byte[] {1}, new byte[] {2}, ciphers);
+    EncodedEncryptedCookieValue actualCookie = EncodedEncryptedCookieValue.decodeAndDecrypt(encodeAndEncrypt, currentParameters.get().ciphers);
+    assertArrayEquals(new byte[] {1}, actualCookie.controlData);
+    assertArrayEquals(new byte[] {2}, actualCookie.sessionData);
+
+    KeyGenerator generator = KeyGenerator.getInstance("AES");
+    generator.init(256);
+    byte[] newKey = generator.generateKey().getEncoded();
+    parameters.setSymmetricEncryptionKey(newKey);
+    assertSame(ciphers, currentParameters.get().ciphers);
+    currentParameters.reload();
+    assertNotSame(ciphers, currentParameters.get().ciphers);
+    assertArrayEquals(newKey, currentParameters.get().ciphers.key);
+  }
+
+  @Test
+  public void testSigned() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setSymmetricEncryptionAlgorithm(SessionCookieParameters.HMAC_SHA256_ALGORITHM);
+    KeyedCiphers ciphers = new ParametersSnapshot(parameters, null).ciphers;
+    assertTrue(ciphers.engine instanceof MacCryptoEngine);
+
+    byte[] controlData = {1, 2, 3};
+    byte[] sessionData = "signed session".getBytes("UTF-8");
+    String cookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(controlData, sessionData, ciphers);
+    byte[] signedData = Base64.getUrlDecoder().decode(cookieValue);
+    assertEquals(1 + 1 + controlData.length + 1 + sessionData.length + 32, signedData.length);
+    assertEquals(EncodedEncryptedCookieValue.WIRE_FORMAT_VERSION, signedData[0]);
+
+    EncodedEncryptedCookieValue actualCookie = EncodedEncryptedCookieValue.decodeAndDecrypt(cookieValue, ciphers);
+    assertArrayEquals(controlData, actualCookie.controlData);
+    assertArrayEquals(sessionData, actualCookie.sessionData);
+
+    for (int i : new int[] {0, 1, 8, signedData.length - 1})
+    {
+      byte[] tampered = signedData.clone();
+      tampered[i] ^= 1;
+      try
+      {
+        EncodedEncryptedCookieValue.decodeAndDecrypt(Base64.getUrlEncoder().withoutPadding().encodeToString(tampered), ciphers);
+        fail();
+      }
+      catch (SessionCookieDecryptionException e)
+      {
+      }
+    }
+
+    /*
+     * An authenticating engine doesn't fall back to the legacy format so an unknown version is rejected before anything is opened.
+     */
+    byte[] unsupported = signedData.clone();
+    unsupported[0] = 0x01;
+    try
+    {
+      EncodedEncryptedCookieValue.decodeAndDecrypt(Base64.getUrlEncoder().withoutPadding().encodeToString(unsupported), ciphers);
+      fail();
+    }
+    catch (SessionCookieDecodingException e)
+    {
+    }
+
+    try
+    {
+      EncodedEncryptedCookieValue.decodeAndDecrypt("AQ", ciphers);
+      fail();
+    }
+    catch (SessionCookieDecodingException e)
+    {
+    }
+
+    try
+    {
+      EncodedEncryptedCookieValue.decodeAndDecrypt("Ag", ciphers);
+      fail();
+    }
+    catch (SessionCookieDecryptionException e)
+    {
+    }
+  }
+
+  @Test
+  public void testAuthenticatedEngines() throws Exception
+  {
+    for (String algorithm : new String[] {SessionCookieParameters.AES_GCM_ALGORITHM, SessionCookieParameters.CHACHA20_POLY1305_ALGORITHM})
+    {
+      /*
+       * ChaCha20-Poly1305 is only available from Java 11.
+       */
+      assumeTrue(isSupported(algorithm));
+
+      SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+      parameters.setSymmetricEncryptionAlgorithm(algorithm);
+      KeyedCiphers ciphers = new ParametersSnapshot(parameters, null).ciphers;
+      assertTrue(ciphers.engine instanceof AeadCryptoEngine);
+
+      byte[] controlData = {1, 2, 3};
+      byte[] sessionData = "session".getBytes("UTF-8");
+      String cookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(controlData, sessionData, ciphers);
+      assertNotEquals(cookieValue, EncodedEncryptedCookieValue.encodeAndEncrypt(controlData, sessionData, ciphers));
+
+      for (int i = 0; i < 2; i++)
+      {
+        EncodedEncryptedCookieValue actualCookie = EncodedEncryptedCookieValue.decodeAndDecrypt(cookieValue, ciphers);
+        assertArrayEquals(controlData, actualCookie.controlData);
+        assertArrayEquals(sessionData, actualCookie.sessionData);
+      }
+
+      byte[] encryptedData = Base64.getUrlDecoder().decode(cookieValue);
+      for (int i = 1; i < encryptedData.length; i++)
+      {
+        byte[] tampered = encryptedData.clone();
+        tampered[i] ^= 0x40;
+        try
+        {
+          EncodedEncryptedCookieValue.decodeAndDecrypt(Base64.getUrlEncoder().withoutPadding().encodeToString(tampered), ciphers);
+          fail(algorithm + " accepted a changed byte " + i);
+        }
+        catch (SessionCookieDecryptionException e)
+        {
+        }
+      }
+    }
+  }
+
+  static boolean isSupported(String algorithm)
+  {
+    try
+    {
+      Cipher.getInstance(algorithm);
+      return true;
+    }
+    catch (GeneralSecurityException e)
+    {
+      return false;
+    }
+  }
+
+  @Test
+  public void testKeyRotation() throws Exception
+  {
+    KeyGenerator generator = KeyGenerator.getInstance("AES");
+    generator.init(256);
+    byte[] firstKey = generator.generateKey().getEncoded();
+    byte[] secondKey = generator.generateKey().getEncoded();
+
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setSymmetricEncryptionAlgorithm(SessionCookieParameters.AES_GCM_ALGORITHM);
+    parameters.setSymmetricEncryptionKey(firstKey);
+    parameters.setSymmetricEncryptionKeyId(1);
+    CurrentParameters currentParameters = new CurrentParameters(parameters, new SessionCookieDefaultErrorHandler());
+
+    String firstCookie = EncodedEncryptedCookieValue.encodeAndEncrypt(new byte[] {1}, new byte[] {2}, currentParameters.get().ciphers);
+    byte[] encryptedData = Base64.getUrlDecoder().decode(firstCookie);
+    assertEquals(EncodedEncryptedCookieValue.KEY_ID_WIRE_FORMAT_VERSION, encryptedData[0]);
+    assertEquals(1, encryptedData[1]);
+
+    parameters.setSymmetricEncryptionKey(secondKey);
+    parameters.setSymmetricEncryptionKeyId(2);
+    KeyRing keyRing = currentParameters.reload().keyRing;
+    assertEquals(2, keyRing.size());
+    String secondCookie = EncodedEncryptedCookieValue.encodeAndEncrypt(new byte[] {3}, new byte[] {4}, currentParameters.get().ciphers);
+    assertEquals(2, Base64.getUrlDecoder().decode(secondCookie)[1]);
+    assertArrayEquals(new byte[] {2}, EncodedEncryptedCookieValue.decodeAndDecrypt(firstCookie, keyRing).sessionData);
+    assertArrayEquals(new byte[] {4}, EncodedEncryptedCookieValue.decodeAndDecrypt(secondCookie, keyRing).sessionData);
+    assertSame(keyRing.get(1), currentParameters.reload().keyRing.get(1));
+
+    parameters.setKeyRetirementSeconds(0);
+    parameters.setSymmetricEncryptionKey(firstKey);
+    parameters.setSymmetricEncryptionKeyId(3);
+    keyRing = currentParameters.reload().keyRing;
+    assertEquals(2, keyRing.size());
+    assertNull(keyRing.get(2));
+    try
+    {
+      EncodedEncryptedCookieValue.decodeAndDecrypt(secondCookie, keyRing);
+      fail();
+    }
+    catch (SessionCookieDecryptionException e)
+    {
+    }
+
+    parameters.setPreviousSymmetricEncryptionKeys(Collections.singletonMap(2, secondKey));
+    keyRing = currentParameters.reload().keyRing;
+    assertArrayEquals(new byte[] {4}, EncodedEncryptedCookieValue.decodeAndDecrypt(secondCookie, keyRing).sessionData);
+    assertSame(keyRing.get(2), currentParameters.reload().keyRing.get(2));
+
+    parameters.setPreviousSymmetricEncryptionKeys(null);
+    keyRing = currentParameters.reload().keyRing;
+    assertEquals(2, keyRing.size());
+    assertNull(keyRing.get(2));
+    try
+    {
+      EncodedEncryptedCookieValue.decodeAndDecrypt(secondCookie, keyRing);
+      fail();
+    }
+    catch (SessionCookieDecryptionException e)
+    {
+    }
+  }
+
+  @Test
+  public void testWireFormat() throws Exception
+  {
+    KeyGenerator generator = KeyGenerator.getInstance("AES");
+    generator.init(256);
+    byte[] key = generator.generateKey().getEncoded();
+
+    byte[] controlData = new CookieBackedSession(600, new SessionCookieDefaultErrorHandler()).encodeControlData();
+    byte[] sessionData = new byte[1000];
+    new Random().nextBytes(sessionData);
+
+    String cookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(controlData, sessionData, key, "AES");
+    assertTrue(cookieValue.matches("[A-Za-z0-9_-]+"));
+    assertEquals(EncodedEncryptedCookieValue.WIRE_FORMAT_VERSION, Base64.getUrlDecoder().decode(cookieValue)[0]);
+    assertTrue(cookieValue.length() < (controlData.length + sessionData.length) * 3 / 2);
+
+    EncodedEncryptedCookieValue actualCookie = EncodedEncryptedCookieValue.decodeAndDecrypt(cookieValue, key, "AES");
+    assertArrayEquals(controlData, actualCookie.controlData);
+    assertArrayEquals(sessionData, actualCookie.sessionData);
+  }
+
+  @Test
+  public void testLegacyWireFormat() throws Exception
+  {
+    KeyGenerator generator = KeyGenerator.getInstance("AES");
+    generator.init(256);
+    SecretKey key = generator.generateKey();
+
+    EncodedMap expectedSessionMap = new EncodedMap();
+    expectedSessionMap.put("One", 1);
+    byte[] controlData = new CookieBackedSession(600, new SessionCookieDefaultErrorHandler()).encodeControlData();
+
+    for (int i = 0; i < 300; i++)
+    {
+      expectedSessionMap.put("Counter", i);
+      Cipher cipher = Cipher.getInstance("AES");
+      cipher.init(Cipher.ENCRYPT_MODE, key);
+      String legacyValue = Base64.getEncoder().encodeToString(controlData) + "," + expectedSessionMap.encode();
+      String legacyCookieValue = Base64.getEncoder().encodeToString(cipher.doFinal(legacyValue.getBytes()));
+
+      EncodedEncryptedCookieValue actualCookie = EncodedEncryptedCookieValue.decodeAndDecrypt(legacyCookieValue, key.getEncoded(), "AES");
+      assertArrayEquals(controlData, actualCookie.controlData);
+      assertEquals(expectedSessionMap, new EncodedMap(actualCookie.sessionData));
+    }
+  }
 }
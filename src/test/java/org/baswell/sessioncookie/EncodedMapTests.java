@@ -2,8 +2,20 @@ package org.baswell.sessioncookie;
 
 import org.junit.Test;
 
-import javax.crypto.KeyGenerator;
-import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -23,4 +35,151 @@ public class EncodedMapTests
 
     assertEquals(expectedMap, actualMap);
   }
+
+  @Test
+  public void testNativeTypes() throws Exception
+  {
+    EncodedMap expectedMap = new EncodedMap();
+    expectedMap.put("string", "h\u00e9llo w\u00f6rld");
+    expectedMap.put("emptyString", "");
+    expectedMap.put("null", null);
+    expectedMap.put("true", true);
+    expectedMap.put("byte", (byte) -7);
+    expectedMap.put("short", (short) -1234);
+    expectedMap.put("char", 'Z');
+    expectedMap.put("int", Integer.MIN_VALUE);
+    expectedMap.put("long", Long.MAX_VALUE);
+    expectedMap.put("float", 1.5f);
+    expectedMap.put("double", -2.25);
+    expectedMap.put("date", new Date(1234567890123L));
+    expectedMap.put("instant", Instant.ofEpochSecond(1234567890L, 987654321));
+
+    ArrayList<Object> list = new ArrayList<>();
+    list.add("a");
+    list.add(1L);
+    list.add(null);
+    expectedMap.put("list", list);
+
+    HashMap<Object, Object> map = new HashMap<>();
+    map.put("x", 1);
+    map.put(2, list);
+    expectedMap.put("map", map);
+
+    LinkedHashMap<String, Object> linkedMap = new LinkedHashMap<>();
+    linkedMap.put("z", "last");
+    linkedMap.put("a", "first");
+    expectedMap.put("linkedMap", linkedMap);
+
+    EncodedMap actualMap = new EncodedMap(expectedMap.toBytes());
+    assertEquals(expectedMap, actualMap);
+    assertEquals(LinkedHashMap.class, actualMap.get("linkedMap").getClass());
+    assertEquals(Arrays.asList("z", "a"), new ArrayList<>(((Map<?, ?>) actualMap.get("linkedMap")).keySet()));
+  }
+
+  @Test
+  public void testByteArray() throws Exception
+  {
+    EncodedMap expectedMap = new EncodedMap();
+    byte[] bytes = new byte[300];
+    for (int i = 0; i < bytes.length; i++)
+    {
+      bytes[i] = (byte) i;
+    }
+    expectedMap.put("bytes", bytes);
+
+    EncodedMap actualMap = new EncodedMap(expectedMap.encode());
+    assertArrayEquals(bytes, (byte[]) actualMap.get("bytes"));
+  }
+
+  @Test
+  public void testSerializableFallback() throws Exception
+  {
+    EncodedMap expectedMap = new EncodedMap();
+    expectedMap.put("bigDecimal", new BigDecimal("12345.6789"));
+    expectedMap.put("linkedList", new LinkedList<>(Arrays.asList(1, 2, 3)));
+    expectedMap.put("after", "still readable");
+
+    EncodedMap actualMap = new EncodedMap(expectedMap.encode());
+    assertEquals(expectedMap, actualMap);
+    assertEquals(LinkedList.class, actualMap.get("linkedList").getClass());
+  }
+
+  @Test
+  public void testLegacyFormat() throws Exception
+  {
+    HashMap<String, Object> expectedMap = new HashMap<>();
+    expectedMap.put("One", 1);
+    expectedMap.put("Two", "2");
+
+    ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bytesOut);
+    oos.writeObject(expectedMap);
+    oos.close();
+
+    assertEquals(expectedMap, new EncodedMap(Base64.getEncoder().encodeToString(bytesOut.toByteArray())));
+  }
+
+  @Test
+  public void testSmallerThanJavaSerialization() throws Exception
+  {
+    EncodedMap map = new EncodedMap();
+    map.put("userId", 1234567L);
+    map.put("admin", false);
+    map.put("locale", "en_US");
+
+    ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bytesOut);
+    oos.writeObject(new HashMap<>(map));
+    oos.close();
+
+    assertTrue(map.toBytes().length * 4 < bytesOut.size());
+  }
+
+  @Test
+  public void testPerAttributeDecoding() throws Exception
+  {
+    EncodedMap expectedMap = new EncodedMap();
+    expectedMap.put("flag", true);
+    expectedMap.put("list", new ArrayList<>(Arrays.asList("a", "b")));
+    expectedMap.put("big", new BigDecimal("1.5"));
+    byte[] encodedData = expectedMap.toBytes();
+
+    EncodedMap actualMap = new EncodedMap(encodedData);
+    assertSame(encodedData, actualMap.toBytes());
+
+    assertEquals(true, actualMap.decode("flag"));
+    assertSame(encodedData, actualMap.toBytes());
+
+    ((List<Object>) actualMap.decode("list")).add("c");
+    byte[] reencodedData = actualMap.toBytes();
+    assertNotSame(encodedData, reencodedData);
+
+    EncodedMap reencodedMap = new EncodedMap(reencodedData);
+    assertEquals(Arrays.asList("a", "b", "c"), reencodedMap.decode("list"));
+    assertEquals(new BigDecimal("1.5"), reencodedMap.decode("big"));
+    assertEquals(3, reencodedMap.size());
+  }
+
+  @Test
+  public void testUndecodableAttribute() throws Exception
+  {
+    EncodedMap expectedMap = new EncodedMap();
+    expectedMap.put("bad", "x");
+    expectedMap.put("good", "value");
+    byte[] encodedData = expectedMap.toBytes();
+    encodedData[7] = 99;
+
+    EncodedMap actualMap = new EncodedMap(encodedData);
+    assertEquals("value", actualMap.decode("good"));
+    try
+    {
+      actualMap.decode("bad");
+      fail("Invalid value tag should not decode.");
+    }
+    catch (SessionCookieDecodingException e)
+    {}
+
+    actualMap.remove("bad");
+    assertEquals(Collections.singletonMap("good", "value"), new EncodedMap(actualMap.toBytes()));
+  }
 }
@@ -0,0 +1,61 @@
+package org.baswell.sessioncookie;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PathMatcherTests
+{
+  @Test
+  public void testLiteral()
+  {
+    assertEquals("/css/", PathMatcher.literal("/css/", 0, 5));
+    assertEquals(".png", PathMatcher.literal("\\.png", 0, 5));
+    assertNull(PathMatcher.literal("/img/*", 0, 6));
+    assertNull(PathMatcher.literal("/api/\\d+", 0, 8));
+  }
+
+  @Test
+  public void testMatchesLikePatterns()
+  {
+    List<String> patterns = Arrays.asList("/login", "/css/.*", "/js/.*", ".*\\.png", ".*\\.ico", "/img/*", "/api/v[0-9]+/public/.*", "/(a+)/\\1", "(?i)/HEALTH", "/u/(?<id>\\d+)",
+        "/v/(?<id>\\d+)", "/(?<!x)w");
+    PathMatcher matcher = new PathMatcher(patterns);
+    String[] paths = {"", "/", "/login", "/login/", "/logi", "/css/", "/css/site.css", "/css", "/js/app.js", "/logo.png", "/png", ".png", "/favicon.ico",
+        "/img", "/img//", "/img/a", "/api/v2/public/x", "/api/v/public/x", "/aa/aa", "/aa/a", "/health", "/home", "/u/12", "/v/3", "/v/x", "/w",
+        "/css/a\nb", "/css/\u2028", "/logo\r.png", "/js/\n"};
+    for (String path : paths)
+    {
+      boolean expected = false;
+      for (String pattern : patterns)
+      {
+        expected |= Pattern.compile(pattern).matcher(path).matches();
+      }
+      assertEquals(path, expected, matcher.matches(path));
+      assertEquals(path, expected, matcher.matches("/app" + path, 4));
+    }
+  }
+
+  @Test
+  public void testDecisionCache()
+  {
+    RequestPathMatcher matcher = new RequestPathMatcher(null, new PathMatcher(Arrays.asList("/css/.*")));
+    assertFalse(matcher.wrap("/app", "/app/css/site.css"));
+    assertTrue(matcher.wrap("/app", "/app/home"));
+    assertFalse(matcher.wrap("/app", "/app/css/site.css"));
+    assertEquals(2, matcher.cachedDecisions());
+
+    for (int i = 0; i < RequestPathMatcher.MAX_CACHED_DECISIONS * 2; i++)
+    {
+      assertTrue(matcher.wrap("/app", "/app/users/" + i));
+    }
+    assertTrue(matcher.cachedDecisions() <= RequestPathMatcher.MAX_CACHED_DECISIONS);
+  }
+}
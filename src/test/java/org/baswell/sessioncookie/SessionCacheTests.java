@@ -0,0 +1,202 @@
+package org.baswell.sessioncookie;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionCacheTests
+{
+  @Test
+  public void testBounded() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setMaxInMemorySessions(100);
+    List<CookieBackedSession> evicted = new ArrayList<>();
+    CurrentParameters currentParameters = new CurrentParameters(parameters, null);
+    SessionCache cache = new SessionCache(currentParameters, (session, expired) -> evicted.add(session));
+
+    for (int i = 0; i < 1000; i++)
+    {
+      CookieBackedSession session = new CookieBackedSession(600, null);
+      assertNull(cache.putIfAbsent(session));
+      assertTrue(cache.size() <= 100);
+    }
+    assertEquals(100, cache.size());
+    assertEquals(900, evicted.size());
+
+    CookieBackedSession session = cache.sessions().get(0);
+    assertSame(session, cache.get(session.getId()));
+    assertTrue(cache.remove(session));
+    assertFalse(cache.contains(session));
+    assertEquals(99, cache.size());
+
+    parameters.setMaxInMemorySessions(10);
+    currentParameters.reload();
+    cache.putIfAbsent(new CookieBackedSession(600, null));
+    assertEquals(10, cache.size());
+
+    parameters.setMaxInMemorySessions(-5);
+    currentParameters.reload();
+    assertNull(cache.putIfAbsent(new CookieBackedSession(600, null)));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testFrequentSessionsSurviveScan() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setMaxInMemorySessions(100);
+    SessionCache cache = new SessionCache(new CurrentParameters(parameters, null), (session, expired) -> {});
+
+    List<CookieBackedSession> regulars = new ArrayList<>();
+    for (int i = 0; i < 50; i++)
+    {
+      CookieBackedSession session = new CookieBackedSession(600, null);
+      cache.putIfAbsent(session);
+      regulars.add(session);
+    }
+
+    for (int i = 0; i < 10000; i++)
+    {
+      if (i % 10 == 0)
+      {
+        for (CookieBackedSession regular : regulars)
+        {
+          cache.get(regular.getId());
+        }
+      }
+      cache.putIfAbsent(new CookieBackedSession(600, null));
+    }
+
+    for (CookieBackedSession regular : regulars)
+    {
+      assertTrue(cache.contains(regular));
+    }
+  }
+
+  @Test
+  public void testExpire() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setMaxInMemorySessions(100);
+    List<CookieBackedSession> expired = new ArrayList<>();
+    SessionCache cache = new SessionCache(new CurrentParameters(parameters, null), (session, expiredSession) -> expired.add(session));
+
+    CookieBackedSession active = new CookieBackedSession(600, null);
+    CookieBackedSession inactive = new CookieBackedSession(600, null);
+    CookieBackedSession noInactivityTimeout = new CookieBackedSession(-1, null);
+    cache.putIfAbsent(active);
+    cache.putIfAbsent(inactive);
+    cache.putIfAbsent(noInactivityTimeout);
+    assertEquals(0, cache.expire());
+
+    inactive.lastAccessedAt -= 601000;
+    cache.reschedule(inactive);
+
+    try
+    {
+      Thread.sleep(1100);
+    }
+    catch (InterruptedException e)
+    {}
+
+    assertEquals(1, cache.expire());
+    assertSame(inactive, expired.get(0));
+    assertFalse(cache.contains(inactive));
+    assertTrue(cache.contains(active));
+    assertTrue(cache.contains(noInactivityTimeout));
+  }
+
+  @Test
+  public void testSegmentsFollowMaximum() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    assertEquals(SessionCookieParameters.DEFAULT_MAX_IN_MEMORY_SESSIONS, parameters.getMaxInMemorySessions());
+    List<CookieBackedSession> evicted = new ArrayList<>();
+    CurrentParameters currentParameters = new CurrentParameters(parameters, null);
+    SessionCache cache = new SessionCache(currentParameters, (session, expired) -> evicted.add(session));
+    assertEquals(1, cache.segmentCount());
+
+    parameters.setMaxInMemorySessions(10000);
+    currentParameters.reload();
+    List<CookieBackedSession> sessions = new ArrayList<>();
+    for (int i = 0; i < 1000; i++)
+    {
+      CookieBackedSession session = new CookieBackedSession(600, null);
+      assertNull(cache.putIfAbsent(session));
+      sessions.add(session);
+    }
+    assertTrue(cache.segmentCount() > 1);
+    assertEquals(1000, cache.size());
+    assertTrue(evicted.isEmpty());
+
+    /*
+     * Shrinking to fewer segments moves the sessions that still fit instead of giving most segments no room at all.
+     */
+    parameters.setMaxInMemorySessions(100);
+    currentParameters.reload();
+    CookieBackedSession session = new CookieBackedSession(600, null);
+    assertNull(cache.putIfAbsent(session));
+    assertEquals(1, cache.segmentCount());
+    assertEquals(100, cache.size());
+    assertEquals(901, evicted.size());
+    for (CookieBackedSession cached : cache.sessions())
+    {
+      assertSame(cached, cache.get(cached.getId()));
+    }
+  }
+
+  @Test
+  public void testConcurrentSegments() throws Exception
+  {
+    final SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setMaxInMemorySessions(SessionCache.MINIMUM_SEGMENT_SIZE * 8);
+    final SessionCache cache = new SessionCache(new CurrentParameters(parameters, null), (session, expired) -> {});
+
+    Thread[] threads = new Thread[4];
+    final List<Throwable> errors = new ArrayList<>();
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i] = new Thread(() ->
+      {
+        try
+        {
+          for (int j = 0; j < 5000; j++)
+          {
+            CookieBackedSession session = new CookieBackedSession(600, null);
+            assertNull(cache.putIfAbsent(session));
+            cache.get(session.getId());
+            if (j % 3 == 0)
+            {
+              cache.remove(session);
+            }
+          }
+        }
+        catch (Throwable e)
+        {
+          synchronized (errors)
+          {
+            errors.add(e);
+          }
+        }
+      });
+      threads[i].start();
+    }
+
+    for (Thread thread : threads)
+    {
+      thread.join();
+    }
+
+    assertTrue(errors.isEmpty());
+    assertTrue(cache.size() <= parameters.getMaxInMemorySessions());
+    assertEquals(cache.size(), cache.sessions().size());
+  }
+}
@@ -0,0 +1,88 @@
+package org.baswell.sessioncookie;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+public class SessionCookieEventsTests
+{
+  @Test
+  public void testDisabled()
+  {
+    assertNull(SessionCookieEvents.DECODE.begin());
+    assertNull(SessionCookieEvents.PURGE.begin());
+  }
+
+  /**
+   * JFR is only used reflectively so this runs on JVMs without it.
+   */
+  @Test
+  public void testRecorded() throws Exception
+  {
+    assumeTrue(SessionCookieEvents.DECODE.isAvailable());
+
+    Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+    Object recording = recordingClass.getConstructor().newInstance();
+    recordingClass.getMethod("enable", String.class).invoke(recording, "org.baswell.sessioncookie.SessionCookieDecode");
+    recordingClass.getMethod("start").invoke(recording);
+
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setMaxInMemorySessions(10);
+    CurrentParameters currentParameters = new CurrentParameters(parameters, new SessionCookieDefaultErrorHandler());
+    CacheManager cacheManager = new CacheManager(currentParameters, new SessionCookieDefaultErrorHandler());
+    CookieBackedSession session = cacheManager.getSession(CacheManagerTests.request(parameters, null), true);
+    session.sessionData().put("key", "value");
+    String cookieValue = EncodedEncryptedCookieValue.encodeAndEncrypt(session.encodeControlData(), session.encodeSessionData(), currentParameters.get().ciphers);
+    cacheManager.remove(session);
+    cacheManager.getSession(CacheManagerTests.request(parameters, cookieValue), false);
+    cacheManager.getSession(CacheManagerTests.request(parameters, cookieValue), false);
+    cacheManager.getSession(CacheManagerTests.request(parameters, "invalid"), false);
+
+    File file = File.createTempFile("session-cookie", ".jfr");
+    try
+    {
+      recordingClass.getMethod("stop").invoke(recording);
+      recordingClass.getMethod("dump", java.nio.file.Path.class).invoke(recording, file.toPath());
+      recordingClass.getMethod("close").invoke(recording);
+
+      List<Object> events = (List<Object>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", java.nio.file.Path.class).invoke(null, file.toPath());
+      Class<?> recordedObjectClass = Class.forName("jdk.jfr.consumer.RecordedObject");
+      List<String> outcomes = new ArrayList<>();
+      Class<?> recordedEventClass = Class.forName("jdk.jfr.consumer.RecordedEvent");
+      Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+      for (Object event : events)
+      {
+        Object eventType = recordedEventClass.getMethod("getEventType").invoke(event);
+        if (!"org.baswell.sessioncookie.SessionCookieDecode".equals(eventTypeClass.getMethod("getName").invoke(eventType)))
+        {
+          continue;
+        }
+
+        String outcome = (String) recordedObjectClass.getMethod("getValue", String.class).invoke(event, "cacheOutcome");
+        outcomes.add(outcome);
+        if (!outcome.equals(SessionCookieEvents.FAILED))
+        {
+          assertEquals(cookieValue.length(), recordedObjectClass.getMethod("getInt", String.class).invoke(event, "cookieBytes"));
+          assertEquals(1, recordedObjectClass.getMethod("getInt", String.class).invoke(event, "attributeCount"));
+        }
+      }
+      outcomes.sort(null);
+      List<String> expected = new ArrayList<>();
+      expected.add(SessionCookieEvents.MISS);
+      expected.add(SessionCookieEvents.HIT);
+      expected.add(SessionCookieEvents.FAILED);
+      expected.sort(null);
+      assertEquals(expected, outcomes);
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+}
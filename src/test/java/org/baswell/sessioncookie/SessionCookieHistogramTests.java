@@ -0,0 +1,45 @@
+package org.baswell.sessioncookie;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SessionCookieHistogramTests
+{
+  @Test
+  public void testBuckets()
+  {
+    long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE};
+    for (long value : values)
+    {
+      int bucket = SessionCookieHistogram.bucketOf(value);
+      assertTrue(value <= SessionCookieHistogram.highestValueOf(bucket));
+      assertTrue(bucket == 0 || value > SessionCookieHistogram.highestValueOf(bucket - 1));
+    }
+  }
+
+  @Test
+  public void testPercentiles()
+  {
+    SessionCookieHistogram histogram = new SessionCookieHistogram();
+    assertEquals(0, histogram.getValueAtPercentile(99));
+
+    for (long i = 1; i <= 10000; i++)
+    {
+      histogram.record(i * 1000);
+    }
+
+    assertEquals(10000, histogram.getCount());
+    assertEquals(10000000, histogram.getMax());
+    assertEquals(5000500, histogram.getMean(), 0.001);
+    assertWithin(5000000, histogram.getValueAtPercentile(50));
+    assertWithin(9900000, histogram.getValueAtPercentile(99));
+    assertEquals(10000000, histogram.getValueAtPercentile(100));
+  }
+
+  static void assertWithin(long expected, long actual)
+  {
+    assertTrue(actual + " is not within 7% of " + expected, Math.abs(actual - expected) <= expected * 0.07);
+  }
+}
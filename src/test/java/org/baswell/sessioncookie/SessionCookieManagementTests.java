@@ -0,0 +1,73 @@
+package org.baswell.sessioncookie;
+
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class SessionCookieManagementTests
+{
+  @Test
+  public void testRegistered() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    SessionCookieHistogramMetrics metrics = new SessionCookieHistogramMetrics();
+    SessionCookieRequestHandler handler = new SessionCookieRequestHandler(parameters, new SessionCookieDefaultErrorHandler(), metrics, null);
+    SessionCookieManagement management = new SessionCookieManagement(parameters, handler, metrics);
+    SessionCookieManagement otherManagement = new SessionCookieManagement(parameters, handler, metrics);
+    management.register("/app", "SessionCookieFilter");
+    otherManagement.register("/app", "SessionCookieFilter");
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try
+    {
+      ObjectName objectName = management.getObjectName();
+      assertNotEquals(objectName, otherManagement.getObjectName());
+
+      metrics.onCacheHit();
+      metrics.onCacheHit();
+      metrics.onCacheHit();
+      metrics.onCacheMiss();
+      metrics.onCookieSize(100);
+      metrics.onCookieSize(200);
+      assertEquals(0.75, (double) server.getAttribute(objectName, "CacheHitRatio"), 0);
+      assertEquals(150.0, (double) server.getAttribute(objectName, "AverageCookieSize"), 0);
+      assertEquals(0, server.getAttribute(objectName, "CacheSize"));
+
+      server.setAttribute(objectName, new Attribute("MaxInMemorySessions", 5000));
+      server.setAttribute(objectName, new Attribute("TouchGranularitySeconds", 30));
+      assertEquals(5000, parameters.getMaxInMemorySessions());
+      assertEquals(30, parameters.getTouchGranularitySeconds());
+    }
+    finally
+    {
+      management.unregister();
+      otherManagement.unregister();
+    }
+    assertFalse(server.queryNames(new ObjectName(SessionCookieManagement.DOMAIN + ":*"), null).size() > 0);
+  }
+
+  @Test
+  public void testReadOnlyParameters() throws Exception
+  {
+    byte[] key = new SessionCookieDefaultParameters().getSymmetricEncryptionKey();
+    SessionCookieParameters parameters = () -> key;
+    SessionCookieHistogramMetrics metrics = new SessionCookieHistogramMetrics();
+    SessionCookieRequestHandler handler = new SessionCookieRequestHandler(parameters, new SessionCookieDefaultErrorHandler(), metrics, null);
+    SessionCookieManagement management = new SessionCookieManagement(parameters, handler, metrics);
+    assertEquals(SessionCookieParameters.DEFAULT_MAX_IN_MEMORY_SESSIONS, management.getMaxInMemorySessions());
+    try
+    {
+      management.setMaxInMemorySessions(10);
+      fail();
+    }
+    catch (UnsupportedOperationException e)
+    {}
+  }
+}
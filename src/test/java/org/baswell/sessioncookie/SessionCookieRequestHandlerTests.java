@@ -3,7 +3,6 @@ package org.baswell.sessioncookie;
 import org.junit.Test;
 
 import java.util.Arrays;
-import java.util.regex.Pattern;
 
 import static org.baswell.sessioncookie.SessionCookieFilter.wrapRequest;
 import static org.junit.Assert.assertFalse;
@@ -15,8 +14,31 @@ public class SessionCookieRequestHandlerTests
   public void testWrapRequest()
   {
     assertTrue(wrapRequest("/test", "/test/abc", null, null));
-    assertFalse(wrapRequest("/test", "/test/abc", null, Arrays.asList(Pattern.compile("/.*"))));
-    assertFalse(wrapRequest("/test", "/test/abc", null, Arrays.asList(Pattern.compile("/abc.*"))));
-    assertTrue(wrapRequest("/test", "/test/abc", null, Arrays.asList(Pattern.compile("/test/assets.*"))));
+    assertFalse(wrapRequest("/test", "/test/abc", null, new PathMatcher(Arrays.asList("/.*"))));
+    assertFalse(wrapRequest("/test", "/test/abc", null, new PathMatcher(Arrays.asList("/abc.*"))));
+    assertTrue(wrapRequest("/test", "/test/abc", null, new PathMatcher(Arrays.asList("/test/assets.*"))));
+  }
+
+  @Test
+  public void testTouchDue() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setInactivityTimeoutSeconds(600);
+    SessionCookieRequestHandler handler = new SessionCookieRequestHandler(parameters, new SessionCookieDefaultErrorHandler());
+    CookieBackedSession session = new CookieBackedSession(600, null);
+
+    assertTrue(handler.touchDue(session));
+
+    parameters.setTouchGranularitySeconds(30);
+    handler.reloadParameters();
+    assertFalse(handler.touchDue(session));
+    session.lastAccessedAt -= 31000;
+    assertTrue(handler.touchDue(session));
+
+    parameters.setTouchGranularitySeconds(-1);
+    handler.reloadParameters();
+    assertFalse(handler.touchDue(session));
+    session.lastAccessedAt -= 30000;
+    assertTrue(handler.touchDue(session));
   }
 }
@@ -0,0 +1,94 @@
+package org.baswell.sessioncookie;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SetCookieHeaderTests
+{
+  @Test
+  public void testRender()
+  {
+    SetCookieHeader header = new SetCookieHeader("session", null, null, false, false, null);
+    assertEquals(1, header.pathCount());
+    assertEquals("session=abc", header.render("abc", 0));
+    assertEquals("session=; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT", header.removal(0));
+
+    header = new SetCookieHeader("session", "example.com", new String[] {"/app"}, true, true, "lax");
+    assertEquals("session=abc; Domain=example.com; Path=/app; Secure; HttpOnly; SameSite=Lax", header.render("abc", 0));
+    assertEquals("session=; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT; Domain=example.com; Path=/app; Secure; HttpOnly; SameSite=Lax", header.removal(0));
+  }
+
+  @Test
+  public void testPaths()
+  {
+    assertNull(SetCookieHeader.parsePaths(null));
+    assertNull(SetCookieHeader.parsePaths(" , "));
+    assertArrayEquals(new String[] {"/app", "/api"}, SetCookieHeader.parsePaths("/app, /api,/app"));
+
+    SetCookieHeader header = new SetCookieHeader("session", null, SetCookieHeader.parsePaths("/app,/api"), false, true, null);
+    assertEquals(2, header.pathCount());
+    assertEquals("session=abc; Path=/app; HttpOnly", header.render("abc", 0));
+    assertEquals("session=abc; Path=/api; HttpOnly", header.render("abc", 1));
+    assertEquals("session=; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT; Path=/api; HttpOnly", header.removal(1));
+  }
+
+  @Test
+  public void testCookiePathsFromOnlyPaths()
+  {
+    assertEquals("/ctx/app,/ctx/api", SessionCookieFilter.cookiePaths("/ctx", Arrays.asList("/app/.*", "/api/v1/.*", "/api/.*")));
+    assertEquals("/api/login", SessionCookieFilter.cookiePaths("", Arrays.asList("/api/login")));
+    assertEquals("/", SessionCookieFilter.cookiePaths("", Arrays.asList("/app.*", "/api/.*")));
+    assertEquals("/ctx", SessionCookieFilter.cookiePaths("/ctx", Arrays.asList(".*")));
+    assertNull(SessionCookieFilter.cookiePaths("/ctx", Arrays.asList("/app/.*", "/api/v[0-9]+/.*")));
+    assertNull(SessionCookieFilter.cookiePaths("/ctx", Arrays.asList(".*\\.jsp")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidName()
+  {
+    new SetCookieHeader("my session", null, null, false, false, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPath()
+  {
+    new SetCookieHeader("session", null, new String[] {"/app; Domain=evil.com"}, false, false, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSameSite()
+  {
+    new SetCookieHeader("session", null, null, false, false, "Sometimes");
+  }
+
+  @Test
+  public void testInvalidReload() throws Exception
+  {
+    SessionCookieDefaultParameters parameters = new SessionCookieDefaultParameters();
+    parameters.setParametersReloadSeconds(1);
+    List<IllegalArgumentException> reported = new ArrayList<>();
+    SessionCookieDefaultErrorHandler errorHandler = new SessionCookieDefaultErrorHandler()
+    {
+      @Override
+      public void onInvalidParameters(IllegalArgumentException exception, SessionCookieParameters parameters)
+      {
+        reported.add(exception);
+      }
+    };
+    CurrentParameters currentParameters = new CurrentParameters(parameters, errorHandler);
+    ParametersSnapshot snapshot = currentParameters.get();
+
+    parameters.setCookieSameSite("Sometimes");
+    Thread.sleep(1100);
+    assertSame(snapshot, currentParameters.reloadIfDue());
+    assertEquals(1, reported.size());
+  }
+}
@@ -0,0 +1,55 @@
+package org.baswell.sessioncookie;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTests
+{
+  @Test
+  public void test()
+  {
+    long start = 1500000000000L;
+    TimerWheel wheel = new TimerWheel(start);
+    long[] offsets = {500, 5000, 90000, 2 * 3600000L, 5 * 86400000L, 90 * 86400000L};
+    List<TimerWheel.Timer> timers = new ArrayList<>();
+    for (long offset : offsets)
+    {
+      TimerWheel.Timer timer = new TimerWheel.Timer();
+      timer.deadline = start + offset;
+      wheel.schedule(timer);
+      timers.add(timer);
+    }
+
+    TimerWheel.Timer descheduled = new TimerWheel.Timer();
+    descheduled.deadline = start + 1000;
+    wheel.schedule(descheduled);
+    wheel.deschedule(descheduled);
+    assertFalse(descheduled.isScheduled());
+
+    List<TimerWheel.Timer> expired = new ArrayList<>();
+    long now = start;
+    int fired = 0;
+    while (fired < offsets.length)
+    {
+      now += 1000 + (now - start) / 100;
+      wheel.advance(now, expired);
+      for (TimerWheel.Timer timer : expired)
+      {
+        assertSame(timers.get(fired), timer);
+        assertTrue(timer.deadline <= now);
+        assertTrue(now - timer.deadline <= 2048 + (now - start) / 100);
+        assertFalse(timer.isScheduled());
+        fired++;
+      }
+      expired.clear();
+    }
+    assertEquals(offsets.length, fired);
+  }
+}